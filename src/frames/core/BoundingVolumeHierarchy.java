@@ -0,0 +1,374 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.core;
+
+import frames.primitives.Vector;
+
+import java.util.List;
+
+/**
+ * A world space bounding volume hierarchy over a set of frames having a bounding volume
+ * (see {@link Frame#setBoundingBall(Vector, float)} and
+ * {@link Frame#setBoundingBox(Vector, Vector)}), used to find the frame closest to the
+ * origin of a ray (see {@link #cast(Vector, Vector)}) without testing them all.
+ * <p>
+ * The hierarchy nodes are balls enclosing the world bounding balls of their frames. Call
+ * {@link #build(List)} when the set of frames changes and {@link #refit()} when some of
+ * them moved, which keeps the hierarchy topology and only recomputes the node balls.
+ * Leaves are tested against the exact frame bounding volumes, in the frame coordinate
+ * system.
+ *
+ * @see Graph#convertClickToLine(frames.primitives.Point, Vector, Vector)
+ */
+public class BoundingVolumeHierarchy {
+  /**
+   * Max number of frames per leaf.
+   */
+  public static int LEAF_SIZE = 4;
+
+  protected Frame[] _frames;
+  protected int _size;
+
+  // nodes (children always have greater indices than their parents)
+  protected float[] _center;
+  protected float[] _radius;
+  protected int[] _left, _right;
+  protected int[] _from, _to;
+  protected int _nodes;
+
+  // scratch
+  protected float[] _frameCenter;
+  protected float[] _frameRadius;
+  protected int[] _stack;
+  protected float[] _distances;
+  protected Vector _vector = new Vector(), _origin = new Vector(), _direction = new Vector();
+  protected float _distance;
+
+  /**
+   * Creates an empty hierarchy.
+   */
+  public BoundingVolumeHierarchy() {
+    _frames = new Frame[0];
+    _allocate(0);
+  }
+
+  /**
+   * Returns the number of frames in the hierarchy.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Returns the frame at position {@code index} of the hierarchy. Frames are reordered
+   * by {@link #build(List)}.
+   */
+  public Frame frame(int index) {
+    return _frames[index];
+  }
+
+  /**
+   * Builds the hierarchy from those {@code frames} having a bounding volume. The
+   * hierarchy is split at the median of the largest extent axis of the frame centers.
+   *
+   * @see #refit()
+   */
+  public void build(List<Frame> frames) {
+    _size = 0;
+    if (_frames.length < frames.size())
+      _frames = new Frame[frames.size()];
+    for (Frame frame : frames)
+      if (frame.hasBoundingVolume())
+        _frames[_size++] = frame;
+    _allocate(_size);
+    for (int i = 0; i < _size; i++)
+      _updateFrameBall(i);
+    _nodes = 0;
+    if (_size > 0)
+      _split(0, _size);
+  }
+
+  /**
+   * Recomputes the node balls from the current frame world transformations, keeping
+   * the hierarchy topology. Call it when some frames have moved.
+   *
+   * @see #build(List)
+   */
+  public void refit() {
+    for (int i = 0; i < _size; i++)
+      _updateFrameBall(i);
+    for (int node = _nodes - 1; node >= 0; node--)
+      _fit(node);
+  }
+
+  /**
+   * Returns the frame whose bounding volume is first hit by the ray starting at
+   * {@code origin} and having {@code direction} (which should be normalized), or
+   * {@code null} if no frame is hit.
+   *
+   * @see #distance()
+   */
+  public Frame cast(Vector origin, Vector direction) {
+    Frame result = null;
+    _distance = Float.MAX_VALUE;
+    if (_nodes == 0)
+      return null;
+    if (_intersectBall(origin, direction, 0) == Float.MAX_VALUE)
+      return null;
+    int top = 0;
+    _stack[top++] = 0;
+    _distances[0] = 0;
+    while (top > 0) {
+      int node = _stack[--top];
+      if (_distances[top] > _distance)
+        continue;
+      if (_left[node] == -1) {
+        for (int i = _from[node]; i < _to[node]; i++) {
+          float t = _intersect(_frames[i], origin, direction);
+          if (t < _distance) {
+            _distance = t;
+            result = _frames[i];
+          }
+        }
+      } else {
+        // the nearest child is visited first
+        float left = _intersectBall(origin, direction, _left[node]);
+        float right = _intersectBall(origin, direction, _right[node]);
+        boolean leftFirst = left <= right;
+        float far = leftFirst ? right : left, near = leftFirst ? left : right;
+        if (far < _distance) {
+          _distances[top] = far;
+          _stack[top++] = leftFirst ? _right[node] : _left[node];
+        }
+        if (near < _distance) {
+          _distances[top] = near;
+          _stack[top++] = leftFirst ? _left[node] : _right[node];
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the distance from the ray origin to the hit point of the last
+   * {@link #cast(Vector, Vector)}, or {@code Float.MAX_VALUE} if nothing was hit.
+   */
+  public float distance() {
+    return _distance;
+  }
+
+  /**
+   * Used by {@link #build(List)} to recursively split the {@code [from, to)} frame range.
+   * Returns the node index.
+   */
+  protected int _split(int from, int to) {
+    int node = _nodes++;
+    _from[node] = from;
+    _to[node] = to;
+    _left[node] = _right[node] = -1;
+    if (to - from > LEAF_SIZE) {
+      float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+      float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+      for (int i = from; i < to; i++)
+        for (int k = 0; k < 3; k++) {
+          min[k] = Math.min(min[k], _frameCenter[3 * i + k]);
+          max[k] = Math.max(max[k], _frameCenter[3 * i + k]);
+        }
+      int axis = 0;
+      for (int k = 1; k < 3; k++)
+        if (max[k] - min[k] > max[axis] - min[axis])
+          axis = k;
+      int middle = (from + to) >>> 1;
+      _select(from, to - 1, middle, axis);
+      _left[node] = _split(from, middle);
+      _right[node] = _split(middle, to);
+    }
+    _fit(node);
+    return node;
+  }
+
+  /**
+   * Used by {@link #_split(int, int)}. Partially sorts the {@code [left, right]} frame
+   * range along {@code axis} so that the k-th frame is in place (quickselect).
+   */
+  protected void _select(int left, int right, int k, int axis) {
+    while (left < right) {
+      float pivot = _frameCenter[3 * ((left + right) >>> 1) + axis];
+      int i = left, j = right;
+      while (i <= j) {
+        while (_frameCenter[3 * i + axis] < pivot)
+          i++;
+        while (_frameCenter[3 * j + axis] > pivot)
+          j--;
+        if (i <= j)
+          _swap(i++, j--);
+      }
+      if (k <= j)
+        right = j;
+      else if (k >= i)
+        left = i;
+      else
+        return;
+    }
+  }
+
+  /**
+   * Used by {@link #_select(int, int, int, int)}.
+   */
+  protected void _swap(int i, int j) {
+    Frame frame = _frames[i];
+    _frames[i] = _frames[j];
+    _frames[j] = frame;
+    float radius = _frameRadius[i];
+    _frameRadius[i] = _frameRadius[j];
+    _frameRadius[j] = radius;
+    for (int k = 0; k < 3; k++) {
+      float center = _frameCenter[3 * i + k];
+      _frameCenter[3 * i + k] = _frameCenter[3 * j + k];
+      _frameCenter[3 * j + k] = center;
+    }
+  }
+
+  /**
+   * Computes the {@code node} ball from those of its children or, if the node is a leaf,
+   * from those of its frames.
+   */
+  protected void _fit(int node) {
+    if (_left[node] == -1) {
+      _setBall(node, _frameCenter, 3 * _from[node], _frameRadius[_from[node]]);
+      for (int i = _from[node] + 1; i < _to[node]; i++)
+        _mergeBall(node, _frameCenter, 3 * i, _frameRadius[i]);
+    } else {
+      _setBall(node, _center, 3 * _left[node], _radius[_left[node]]);
+      _mergeBall(node, _center, 3 * _right[node], _radius[_right[node]]);
+    }
+  }
+
+  /**
+   * Used by {@link #_fit(int)}.
+   */
+  protected void _setBall(int node, float[] center, int offset, float radius) {
+    _center[3 * node] = center[offset];
+    _center[3 * node + 1] = center[offset + 1];
+    _center[3 * node + 2] = center[offset + 2];
+    _radius[node] = radius;
+  }
+
+  /**
+   * Used by {@link #_fit(int)}. Grows the {@code node} ball to enclose the given one.
+   */
+  protected void _mergeBall(int node, float[] center, int offset, float radius) {
+    int n3 = 3 * node;
+    float dx = center[offset] - _center[n3];
+    float dy = center[offset + 1] - _center[n3 + 1];
+    float dz = center[offset + 2] - _center[n3 + 2];
+    float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (distance + radius <= _radius[node])
+      return;
+    if (distance + _radius[node] <= radius) {
+      _setBall(node, center, offset, radius);
+      return;
+    }
+    float newRadius = (distance + radius + _radius[node]) / 2;
+    float t = (newRadius - _radius[node]) / distance;
+    _center[n3] += dx * t;
+    _center[n3 + 1] += dy * t;
+    _center[n3 + 2] += dz * t;
+    _radius[node] = newRadius;
+  }
+
+  /**
+   * Computes the world bounding ball of the frame at {@code index}.
+   */
+  protected void _updateFrameBall(int index) {
+    Frame frame = _frames[index];
+    frame._worldLocation(frame._boundingCenter, _vector);
+    _frameRadius[index] = frame._boundingRadius * frame._worldMagnitude;
+    _frameCenter[3 * index] = _vector._vector[0];
+    _frameCenter[3 * index + 1] = _vector._vector[1];
+    _frameCenter[3 * index + 2] = _vector._vector[2];
+  }
+
+  /**
+   * Returns the distance along the (world) ray to the {@code node} ball, or
+   * {@code Float.MAX_VALUE} if the ray misses it.
+   */
+  protected float _intersectBall(Vector origin, Vector direction, int node) {
+    int n3 = 3 * node;
+    float ox = origin._vector[0] - _center[n3], oy = origin._vector[1] - _center[n3 + 1], oz = origin._vector[2] - _center[n3 + 2];
+    float c = ox * ox + oy * oy + oz * oz - _radius[node] * _radius[node];
+    if (c <= 0)
+      return 0;
+    float b = ox * direction._vector[0] + oy * direction._vector[1] + oz * direction._vector[2];
+    float discriminant = b * b - c;
+    if (b > 0 || discriminant < 0)
+      return Float.MAX_VALUE;
+    return -b - (float) Math.sqrt(discriminant);
+  }
+
+  /**
+   * Returns the distance along the (world) ray to the {@code frame} bounding volume, or
+   * {@code Float.MAX_VALUE} if the ray misses it. The ray is transformed to the frame
+   * coordinate system, which preserves the ray parameterization.
+   */
+  protected float _intersect(Frame frame, Vector origin, Vector direction) {
+    frame._worldLocationInverse(origin, _origin);
+    frame._worldDisplacementInverse(direction, _direction);
+    float[] o = _origin._vector, d = _direction._vector, center = frame._boundingCenter._vector;
+    if (frame._boundingExtent == null) {
+      float ox = o[0] - center[0], oy = o[1] - center[1], oz = o[2] - center[2];
+      float c = ox * ox + oy * oy + oz * oz - frame._boundingRadius * frame._boundingRadius;
+      if (c <= 0)
+        return 0;
+      float a = d[0] * d[0] + d[1] * d[1] + d[2] * d[2];
+      float b = ox * d[0] + oy * d[1] + oz * d[2];
+      float discriminant = b * b - a * c;
+      if (b > 0 || discriminant < 0 || a == 0)
+        return Float.MAX_VALUE;
+      return (-b - (float) Math.sqrt(discriminant)) / a;
+    }
+    float[] extent = frame._boundingExtent._vector;
+    float near = 0, far = Float.MAX_VALUE;
+    for (int k = 0; k < 3; k++) {
+      float min = center[k] - extent[k], max = center[k] + extent[k];
+      if (Math.abs(d[k]) < 1e-8f) {
+        if (o[k] < min || o[k] > max)
+          return Float.MAX_VALUE;
+      } else {
+        float t1 = (min - o[k]) / d[k], t2 = (max - o[k]) / d[k];
+        near = Math.max(near, Math.min(t1, t2));
+        far = Math.min(far, Math.max(t1, t2));
+        if (near > far)
+          return Float.MAX_VALUE;
+      }
+    }
+    return near;
+  }
+
+  /**
+   * Used by {@link #build(List)} to allocate room for {@code size} frames.
+   */
+  protected void _allocate(int size) {
+    int nodes = Math.max(1, 2 * size);
+    if (_radius != null && _radius.length >= nodes && _frameRadius.length >= size)
+      return;
+    _center = new float[3 * nodes];
+    _radius = new float[nodes];
+    _left = new int[nodes];
+    _right = new int[nodes];
+    _from = new int[nodes];
+    _to = new int[nodes];
+    _frameCenter = new float[3 * Math.max(1, size)];
+    _frameRadius = new float[Math.max(1, size)];
+    _stack = new int[nodes + 1];
+    _distances = new float[nodes + 1];
+  }
+}
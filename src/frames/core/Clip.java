@@ -0,0 +1,515 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.core;
+
+import frames.primitives.Quaternion;
+import frames.primitives.Vector;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact, read-only binary representation of the key frames of an {@link Interpolator},
+ * which may be played back directly, i.e., without instantiating any {@link Frame}.
+ * <p>
+ * Clips are encoded from an interpolator with {@link #encode(Interpolator, float)} (or
+ * saved to a file with {@link #save(Interpolator, String, float)}) and decoded with
+ * {@link #Clip(ByteBuffer)}, or {@link #load(String)}, which memory-maps the file so that
+ * large clips are paged in on demand. Each key frame is stored in 18 bytes:
+ * <ul>
+ * <li>Its time, as a float.</li>
+ * <li>Its position, quantized to the clip {@link #precision()} and delta-encoded with
+ * respect to the previous key frame as three shorts. The absolute position of every
+ * {@link #BLOCK}-th key frame is also stored, so that any key frame position is decoded
+ * from, at most, {@link #BLOCK} deltas.</li>
+ * <li>Its orientation, as a "smallest three" quantized quaternion packed into an int: the
+ * index of its largest component (2 bits) and its other three components (10 bits each).
+ * </li>
+ * <li>Its magnitude, as a float, whose sign bit (magnitudes are positive) holds the sign
+ * of the largest orientation component. The quaternion sign is kept since the squad
+ * tangents of the interpolation depend on it.</li>
+ * </ul>
+ * The clip is played back with {@link #evaluate(float, float[], int)} or
+ * {@link #interpolate(float, Frame)}, which compute the same Catmull-Rom interpolation
+ * than {@link Interpolator#interpolate(float)} from the decoded key frames. The decoded
+ * segment is cached so that sequential playback decodes each key frame only once.
+ * <p>
+ * Note that the playback methods are not thread safe. Use a clip per thread (they may
+ * share the same buffer) instead.
+ *
+ * @see Interpolator
+ */
+public class Clip {
+  /**
+   * Number of key frames per position block. The absolute position of the first key frame
+   * of each block is stored.
+   */
+  public static final int BLOCK = 64;
+
+  protected static final int MAGIC = 0x504C4346; // "FCLP"
+  protected static final int VERSION = 1;
+  protected static final int HEADER = 16;
+  protected static final int ANCHOR = 12;
+  protected static final int RECORD = 18;
+  protected static final float SQRT2 = (float) Math.sqrt(2);
+
+  protected ByteBuffer _buffer;
+  protected int _size;
+  protected float _precision;
+  protected int _records;
+
+  // position decoding cursor
+  protected int _cursor;
+  protected long _x, _y, _z;
+
+  // cached segment: positions (2 * 3), position tangents (2 * 3), orientations (2 * 4),
+  // orientation tangents (2 * 4) and magnitudes (2)
+  protected int _segment1, _segment2;
+  protected float[] _segment;
+  protected float[] _scratch;
+  // decoded key frame orientations and positions used to compute the segment tangents
+  protected float[] _orientations;
+  protected float[] _positions;
+  protected float[] _sample;
+
+  /**
+   * Decodes the clip stored in {@code buffer} (from its current position). The buffer is
+   * not copied, so it may be a {@link java.nio.MappedByteBuffer}.
+   *
+   * @see #load(String)
+   */
+  public Clip(ByteBuffer buffer) {
+    _buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    if (_buffer.capacity() < HEADER || _buffer.getInt(0) != MAGIC || _buffer.getInt(4) != VERSION)
+      throw new RuntimeException("Warning: not a valid clip. No clip instantiated");
+    _size = _buffer.getInt(8);
+    _precision = _buffer.getFloat(12);
+    _records = HEADER + ((_size + BLOCK - 1) / BLOCK) * ANCHOR;
+    if (_size < 0 || _buffer.capacity() < _records + _size * RECORD)
+      throw new RuntimeException("Warning: truncated clip. No clip instantiated");
+    _cursor = -1;
+    _segment1 = -1;
+    _segment = new float[30];
+    _scratch = new float[Interpolator.SCRATCH_SIZE];
+    _orientations = new float[16];
+    _positions = new float[12];
+    _sample = new float[Interpolator.SAMPLE_STRIDE];
+  }
+
+  /**
+   * Same as {@code return encode(interpolator, 0.001f)}.
+   *
+   * @see #encode(Interpolator, float)
+   */
+  public static ByteBuffer encode(Interpolator interpolator) {
+    return encode(interpolator, 0.001f);
+  }
+
+  /**
+   * Encodes the key frames of the {@code interpolator} (their world positions,
+   * orientations and magnitudes, and their times) into a new (little-endian) buffer,
+   * quantizing positions to the given {@code precision}. The precision is coarsened as
+   * needed for the position deltas of consecutive key frames to fit into shorts (see
+   * {@link #precision()}).
+   *
+   * @see #save(Interpolator, String, float)
+   */
+  public static ByteBuffer encode(Interpolator interpolator, float precision) {
+    if (precision <= 0)
+      throw new RuntimeException("Warning: clip precision should be positive. No clip encoded");
+    int size = interpolator.size();
+    float[] positions = new float[3 * size];
+    double range = 0;
+    for (int index = 0; index < size; index++) {
+      Vector position = interpolator.keyFrame(index).position();
+      for (int i = 0; i < 3; i++) {
+        positions[3 * index + i] = position._vector[i];
+        if (index > 0)
+          range = Math.max(range, Math.abs((double) positions[3 * index + i] - positions[3 * (index - 1) + i]));
+      }
+    }
+    // leave room for the rounding of both ends of each delta
+    if (range / precision > Short.MAX_VALUE - 1)
+      precision = (float) (range / (Short.MAX_VALUE - 1));
+    int blocks = (size + BLOCK - 1) / BLOCK;
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER + blocks * ANCHOR + size * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(size);
+    buffer.putFloat(precision);
+    long[] quantized = new long[3 * size];
+    for (int i = 0; i < 3 * size; i++) {
+      quantized[i] = Math.round((double) positions[i] / precision);
+      if (Math.abs(quantized[i]) > Integer.MAX_VALUE)
+        throw new RuntimeException("Warning: clip precision is too fine for the key frame positions. No clip encoded");
+    }
+    for (int block = 0; block < blocks; block++)
+      for (int i = 0; i < 3; i++)
+        buffer.putInt((int) quantized[3 * block * BLOCK + i]);
+    for (int index = 0; index < size; index++) {
+      Frame keyFrame = interpolator.keyFrame(index);
+      buffer.putFloat(interpolator.time(index));
+      for (int i = 0; i < 3; i++)
+        buffer.putShort(index % BLOCK == 0 ? 0 : (short) (quantized[3 * index + i] - quantized[3 * (index - 1) + i]));
+      Quaternion orientation = keyFrame.orientation();
+      buffer.putInt(_encode(orientation));
+      buffer.putFloat(orientation._quaternion[_largest(orientation)] < 0 ? -keyFrame.magnitude() : keyFrame.magnitude());
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Same as {@code save(interpolator, path, 0.001f)}.
+   *
+   * @see #save(Interpolator, String, float)
+   */
+  public static boolean save(Interpolator interpolator, String path) {
+    return save(interpolator, path, 0.001f);
+  }
+
+  /**
+   * Encodes the {@code interpolator} key frames (see {@link #encode(Interpolator, float)})
+   * into the file at {@code path}. Returns {@code true} if succeeded and {@code false}
+   * otherwise.
+   *
+   * @see #load(String)
+   */
+  public static boolean save(Interpolator interpolator, String path, float precision) {
+    ByteBuffer buffer = encode(interpolator, precision);
+    try (FileOutputStream stream = new FileOutputStream(path)) {
+      FileChannel channel = stream.getChannel();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      return true;
+    } catch (IOException exception) {
+      System.out.println("Warning: clip couldn't be saved to " + path + ": " + exception.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Memory-maps the clip file at {@code path} (see {@link #save(Interpolator, String, float)})
+   * and returns it, or {@code null} if the file couldn't be read.
+   */
+  public static Clip load(String path) {
+    try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+      FileChannel channel = file.getChannel();
+      return new Clip(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } catch (IOException exception) {
+      System.out.println("Warning: clip couldn't be loaded from " + path + ": " + exception.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Inflates the clip into a new interpolator of the given {@code graph}, having detached
+   * frames (see {@link Frame#isDetached()}) as key frames.
+   */
+  public Interpolator interpolator(Graph graph) {
+    Interpolator interpolator = new Interpolator(graph);
+    float[] orientation = new float[4];
+    for (int index = 0; index < _size; index++) {
+      _position(index, _positions, 0);
+      _orientation(index, orientation, 0);
+      interpolator.addKeyFrame(new Frame(new Vector(_positions[0], _positions[1], _positions[2]),
+          new Quaternion(orientation[0], orientation[1], orientation[2], orientation[3], false), magnitude(index)), time(index));
+    }
+    return interpolator;
+  }
+
+  /**
+   * Returns the number of key frames in the clip.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Returns the distance between two consecutive quantized positions, i.e., twice the
+   * maximum error of the key frame positions.
+   */
+  public float precision() {
+    return _precision;
+  }
+
+  /**
+   * Returns the time of the key frame at {@code index}, expressed in seconds.
+   */
+  public float time(int index) {
+    return _buffer.getFloat(_records + index * RECORD);
+  }
+
+  /**
+   * Returns the time of the first key frame, or 0 if the clip is empty.
+   */
+  public float firstTime() {
+    return _size == 0 ? 0 : time(0);
+  }
+
+  /**
+   * Returns the time of the last key frame, or 0 if the clip is empty.
+   */
+  public float lastTime() {
+    return _size == 0 ? 0 : time(_size - 1);
+  }
+
+  /**
+   * Returns the clip duration, expressed in seconds.
+   */
+  public float duration() {
+    return lastTime() - firstTime();
+  }
+
+  /**
+   * Returns the magnitude of the key frame at {@code index}.
+   */
+  public float magnitude(int index) {
+    return Math.abs(_buffer.getFloat(_records + index * RECORD + 14));
+  }
+
+  /**
+   * Decodes the position of the key frame at {@code index} into {@code target} at
+   * {@code offset}.
+   */
+  public void position(int index, float[] target, int offset) {
+    _position(index, target, offset);
+  }
+
+  /**
+   * Decodes the orientation of the key frame at {@code index} into {@code target} at
+   * {@code offset}, in {@code (x,y,z,w)} order.
+   */
+  public void orientation(int index, float[] target, int offset) {
+    _orientation(index, target, offset);
+  }
+
+  /**
+   * Evaluates the clip at {@code time} (expressed in seconds) and stores the resulting
+   * position, orientation and magnitude into {@code target} at {@code offset}, using the
+   * {@link Interpolator#pathSamples()} layout (see {@link Interpolator#SAMPLE_STRIDE}).
+   * Nothing is done if the clip is empty.
+   */
+  public void evaluate(float time, float[] target, int offset) {
+    if (_size == 0)
+      return;
+    int index2 = _search(time);
+    int index1 = index2 > 0 && time < time(index2) ? index2 - 1 : index2;
+    if (index1 != _segment1 || index2 != _segment2)
+      _decode(index1, index2);
+    float dt = time(index2) - time(index1);
+    float alpha = dt == 0 ? 0.0f : (time - time(index1)) / dt;
+    for (int i = 0; i < 3; i++) {
+      float delta = _segment[3 + i] - _segment[i];
+      float tangent1 = _segment[6 + i], tangent2 = _segment[9 + i];
+      float v1 = 3.0f * delta - 2.0f * tangent1 - tangent2;
+      float v2 = -2.0f * delta + tangent1 + tangent2;
+      target[offset + i] = _segment[i] + alpha * (tangent1 + alpha * (v1 + alpha * v2));
+    }
+    // squad, see Quaternion.squad()
+    Interpolator._slerp(_segment, 12, _segment, 16, alpha, true, target, offset + 3);
+    Interpolator._slerp(_segment, 20, _segment, 24, alpha, false, _scratch, 0);
+    Interpolator._slerp(target, offset + 3, _scratch, 0, 2.0f * alpha * (1.0f - alpha), false, target, offset + 3);
+    target[offset + 7] = Vector.lerp(_segment[28], _segment[29], alpha);
+  }
+
+  /**
+   * Evaluates the clip at {@code time} (see {@link #evaluate(float, float[], int)}) and
+   * sets the {@code frame} position, rotation and magnitude accordingly, as
+   * {@link Interpolator#interpolate(float)} does with its {@link Interpolator#frame()}.
+   */
+  public void interpolate(float time, Frame frame) {
+    if (_size == 0)
+      return;
+    evaluate(time, _sample, 0);
+    Interpolator._apply(frame, _sample, 0);
+  }
+
+  /**
+   * Used by {@link #evaluate(float, float[], int)}. Returns the index of the first key
+   * frame whose time is greater than or equal to {@code time}, or the last index if
+   * there's none.
+   */
+  protected int _search(float time) {
+    int low = 0, high = _size - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (time(middle) < time)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Used by {@link #evaluate(float, float[], int)}. Decodes the segment defined by the key
+   * frames at {@code index1} and {@code index2}, together with their tangents, which
+   * are computed as in {@link Interpolator} from their neighbours.
+   */
+  protected void _decode(int index1, int index2) {
+    int last = _size - 1;
+    int before = Math.max(0, index1 - 1), after = Math.min(last, index2 + 1);
+    // _positions and _orientations hold the before, index1, index2 and after key frames
+    _position(before, _positions, 0);
+    _position(index1, _positions, 3);
+    _position(index2, _positions, 6);
+    _position(after, _positions, 9);
+    _orientation(before, _orientations, 0);
+    _orientation(index1, _orientations, 4);
+    _orientation(index2, _orientations, 8);
+    _orientation(after, _orientations, 12);
+    // the neighbours of index1 are before and index2 (or after when index1 == index2), and
+    // those of index2 are index1 (or before when index1 == index2) and after
+    int next1 = index1 == index2 ? 3 : 2, previous2 = index1 == index2 ? 0 : 1;
+    for (int i = 0; i < 3; i++) {
+      _segment[i] = _positions[3 + i];
+      _segment[3 + i] = _positions[6 + i];
+      _segment[6 + i] = 0.5f * (_positions[3 * next1 + i] - _positions[i]);
+      _segment[9 + i] = 0.5f * (_positions[9 + i] - _positions[3 * previous2 + i]);
+    }
+    System.arraycopy(_orientations, 4, _segment, 12, 8);
+    _squadTangent(_orientations, 0, 4, 4 * next1, _segment, 20);
+    _squadTangent(_orientations, 4 * previous2, 8, 12, _segment, 24);
+    _segment[28] = magnitude(index1);
+    _segment[29] = magnitude(index2);
+    _segment1 = index1;
+    _segment2 = index2;
+  }
+
+  /**
+   * Used by {@link #_decode(int, int)}. Packed version of
+   * {@link Quaternion#squadTangent(Quaternion, Quaternion, Quaternion)} for unit
+   * quaternions, reading {@code before}, {@code center} and {@code after} from
+   * {@code quaternions} at the given offsets and storing the result into {@code target}
+   * at {@code offset}.
+   */
+  protected void _squadTangent(float[] quaternions, int before, int center, int after, float[] target, int offset) {
+    float[] log = _scratch;
+    float cx = quaternions[center], cy = quaternions[center + 1], cz = quaternions[center + 2], cw = quaternions[center + 3];
+    log[0] = log[1] = log[2] = 0;
+    for (int k = 0; k < 2; k++) {
+      // log(center.inverse() * neighbour)
+      int neighbour = k == 0 ? before : after;
+      float nx = quaternions[neighbour], ny = quaternions[neighbour + 1], nz = quaternions[neighbour + 2], nw = quaternions[neighbour + 3];
+      float w = cw * nw + cx * nx + cy * ny + cz * nz;
+      float x = cw * nx - nw * cx - cy * nz + cz * ny;
+      float y = cw * ny - nw * cy + cx * nz - cz * nx;
+      float z = cw * nz - nw * cz - cx * ny + cy * nx;
+      float length = (float) Math.sqrt(x * x + y * y + z * z);
+      float coefficient = length == 0 ? 1 : (float) Math.acos(Math.max(-1, Math.min(1, w))) / length;
+      log[0] += x * coefficient;
+      log[1] += y * coefficient;
+      log[2] += z * coefficient;
+    }
+    // center * exp(-0.25 * (log1 + log2))
+    float ex = -0.25f * log[0], ey = -0.25f * log[1], ez = -0.25f * log[2];
+    float theta = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+    float coefficient = theta == 0 ? 1 : (float) Math.sin(theta) / theta;
+    ex *= coefficient;
+    ey *= coefficient;
+    ez *= coefficient;
+    float ew = (float) Math.cos(theta);
+    float x = cw * ex + ew * cx + cy * ez - cz * ey;
+    float y = cw * ey + ew * cy - cx * ez + cz * ex;
+    float z = cw * ez + ew * cz + cx * ey - cy * ex;
+    float w = cw * ew - cx * ex - cy * ey - cz * ez;
+    float norm = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+    target[offset] = x / norm;
+    target[offset + 1] = y / norm;
+    target[offset + 2] = z / norm;
+    target[offset + 3] = w / norm;
+  }
+
+  /**
+   * Used by {@link #position(int, float[], int)}. Sequential indices are decoded
+   * incrementally, others from the position of the first key frame of their block.
+   */
+  protected void _position(int index, float[] target, int offset) {
+    if (index != _cursor) {
+      int start = index / BLOCK * BLOCK;
+      if (_cursor < start || _cursor > index) {
+        int anchor = HEADER + (index / BLOCK) * ANCHOR;
+        _x = _buffer.getInt(anchor);
+        _y = _buffer.getInt(anchor + 4);
+        _z = _buffer.getInt(anchor + 8);
+        _cursor = start;
+      }
+      while (_cursor < index) {
+        int record = _records + (++_cursor) * RECORD + 4;
+        _x += _buffer.getShort(record);
+        _y += _buffer.getShort(record + 2);
+        _z += _buffer.getShort(record + 4);
+      }
+    }
+    target[offset] = _x * _precision;
+    target[offset + 1] = _y * _precision;
+    target[offset + 2] = _z * _precision;
+  }
+
+  /**
+   * Used by {@link #orientation(int, float[], int)}. Decodes the "smallest three"
+   * quantized quaternion of the key frame at {@code index}.
+   */
+  protected void _orientation(int index, float[] target, int offset) {
+    int bits = _buffer.getInt(_records + index * RECORD + 10);
+    float sign = _buffer.getFloat(_records + index * RECORD + 14) < 0 ? -1 : 1;
+    int largest = bits >>> 30;
+    int shift = 20;
+    float sum = 0;
+    for (int i = 0; i < 4; i++)
+      if (i != largest) {
+        float component = (((bits >>> shift) & 1023) / 1023.0f * 2.0f - 1.0f) / SQRT2;
+        target[offset + i] = sign * component;
+        sum += component * component;
+        shift -= 10;
+      }
+    target[offset + largest] = sign * (float) Math.sqrt(Math.max(0, 1 - sum));
+  }
+
+  /**
+   * Used by {@link #encode(Interpolator, float)}. Returns the "smallest three" quantized
+   * representation of the (normalized) {@code quaternion}.
+   */
+  protected static int _encode(Quaternion quaternion) {
+    float[] components = quaternion._quaternion;
+    float norm = (float) Math.sqrt(Quaternion.squaredNorm(quaternion));
+    int largest = _largest(quaternion);
+    // the largest component is made positive (its sign is stored with the magnitude)
+    float sign = components[largest] < 0 ? -1 : 1;
+    int bits = largest << 30;
+    int shift = 20;
+    for (int i = 0; i < 4; i++)
+      if (i != largest) {
+        float component = sign * components[i] / norm;
+        int value = Math.round((component * SQRT2 + 1.0f) / 2.0f * 1023.0f);
+        bits |= Math.max(0, Math.min(1023, value)) << shift;
+        shift -= 10;
+      }
+    return bits;
+  }
+
+  /**
+   * Used by {@link #encode(Interpolator, float)}. Returns the index of the largest
+   * (absolute) component of the {@code quaternion}.
+   */
+  protected static int _largest(Quaternion quaternion) {
+    int largest = 0;
+    for (int i = 1; i < 4; i++)
+      if (Math.abs(quaternion._quaternion[i]) > Math.abs(quaternion._quaternion[largest]))
+        largest = i;
+    return largest;
+  }
+}
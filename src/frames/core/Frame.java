@@ -52,6 +52,15 @@ import java.util.List;
  * enough to prevent ambiguities. These notions are obviously identical when the
  * {@link #reference()} is {@code null}, i.e., when the frame is defined in the world
  * coordinate system (the one you are left with after calling a graph preDraw() method).
+ * <p>
+ * The global parameters (together with the {@link #worldMatrix()}) are cached and only
+ * recomputed after the frame or one of its ancestors is modified. Modifying a frame doesn't
+ * touch its descendants: each modification stamps the frame with a new generation which
+ * the descendants compare against their cached one when read. Note that modifying the
+ * {@link #translation()} or {@link #rotation()} objects in place bypasses the cache, use
+ * the frame setters instead. Large frame sets may also be backed by a packed
+ * {@link TransformStore} (see {@link #store()}), which updates the world transformations
+ * of their modified branches in a single sweep.
  * <h2>Geometry transformations</h2>
  * A frame is useful to define the position, orientation and magnitude of an arbitrary object
  * which may represent a point-of-view.
@@ -134,6 +143,8 @@ public class Frame {
   protected Frame _reference;
   protected Constraint _constraint;
   protected long _lastUpdate;
+  protected long _branchUpdate;
+  protected long _branchVersion;
 
   // Tracking & Precision
   protected float _threshold;
@@ -155,6 +166,39 @@ public class Frame {
   protected boolean _culled;
   protected boolean _tracking;
 
+  // World transform cache, validated against the ancestors' generation stamps
+  protected static long _generation;
+  protected long _version;
+  protected long _worldVersion;
+  protected long _worldCheck = -1;
+  protected long _cacheVersion = -1;
+  protected Vector _worldPosition;
+  protected Quaternion _worldOrientation;
+  protected float _worldMagnitude;
+  protected Matrix _worldMatrix;
+
+  // Packed transform store
+  protected TransformStore _store;
+  protected int _storeIndex;
+  protected long _storeVersion = -1;
+
+  // Bounding volume (local) and hierarchical bounds (world), see Graph.enableFrustumCulling()
+  protected Vector _boundingCenter;
+  protected Vector _boundingExtent;
+  protected float _boundingRadius;
+  protected Vector _boundsCenter;
+  protected float _boundsRadius;
+  protected boolean _boundsAreValid;
+  protected long _boundsVersion;
+  protected int _cullingMask;
+  protected int _rejectingPlane = -1;
+
+  // Simulation states, see TimingHandler.enableFixedTimestep()
+  protected long _step = -1;
+  protected Vector _stepTranslation, _previousTranslation, _interpolatedTranslation;
+  protected Quaternion _stepRotation, _previousRotation, _interpolatedRotation;
+  protected float _stepScaling, _previousScaling;
+
   /**
    * Same as {@code this(null, new Vector(), new Quaternion(), 1)}.
    *
@@ -314,6 +358,11 @@ public class Frame {
     this._precision = frame._precision;
     this._threshold = frame._threshold;
     this._tracking = frame._tracking;
+    if (frame._boundingCenter != null) {
+      this._boundingCenter = frame._boundingCenter.get();
+      this._boundingExtent = frame._boundingExtent == null ? null : frame._boundingExtent.get();
+      this._boundingRadius = frame._boundingRadius;
+    }
 
     if (graph() == null)
       return;
@@ -430,10 +479,14 @@ public class Frame {
   // MODIFIED
 
   /**
-   * @return the last frame the this object was updated.
+   * Returns the last frame count (see {@link TimingHandler#frameCount}) at which the frame
+   * world transformation was updated, i.e., the last time the frame or one of its ancestors
+   * was modified.
+   *
+   * @see Graph#updatedFrames(long)
    */
   public long lastUpdate() {
-    return _lastUpdate;
+    return reference() == null ? _lastUpdate : Math.max(_lastUpdate, reference().lastUpdate());
   }
 
   // SYNC
@@ -474,9 +527,222 @@ public class Frame {
    */
   protected void _modified() {
     _lastUpdate = TimingHandler.frameCount;
-    if (_children != null)
-      for (Frame child : _children)
-        child._modified();
+    _version = ++_generation;
+    _invalidateBounds();
+    if (_store != null)
+      _store._sync(this);
+    if (_isSimulated())
+      _snapshot();
+    for (Frame frame = this; frame != null && frame._branchUpdate < _lastUpdate; frame = frame.reference())
+      frame._branchUpdate = _lastUpdate;
+    _stampBranch(_version);
+  }
+
+  /**
+   * Internal use. Stamps the branch of the frame with a new generation so that the branch
+   * version of the frame and its ancestors changes. Called when the branch structure (e.g.,
+   * its children) or the way the frame is drawn by {@link #visit()} changes. Modifications of
+   * the frame transformation are automatically taken into account.
+   *
+   * @see Graph#_branchVersion(Frame)
+   */
+  protected void _branchModified() {
+    _stampBranch(++_generation);
+  }
+
+  /**
+   * Used by {@link #_modified()} and {@link #_branchModified()}. Sets the branch version
+   * of the frame and its ancestors to {@code version}.
+   */
+  protected void _stampBranch(long version) {
+    for (Frame frame = this; frame != null && frame._branchVersion < version; frame = frame.reference())
+      frame._branchVersion = version;
+  }
+
+  /**
+   * Internal use. Returns the generation stamp of the frame world transformation, i.e.,
+   * the greatest generation stamp among the frame and its ancestors, which changes every
+   * time any of them is modified. The ancestors are only visited once per generation.
+   */
+  protected long _worldVersion() {
+    if (_worldCheck != _generation) {
+      Frame reference = reference();
+      _worldVersion = reference == null ? _version : Math.max(_version, reference._worldVersion());
+      _worldCheck = _generation;
+    }
+    return _worldVersion;
+  }
+
+  /**
+   * Internal use. Updates the world {@link #position()}, {@link #orientation()} and
+   * {@link #magnitude()} cache from those of the {@link #reference()}. The
+   * {@link #worldMatrix()} cache is lazily computed.
+   */
+  protected void _updateWorldCache() {
+    if (_worldPosition == null) {
+      _worldPosition = new Vector();
+      _worldOrientation = new Quaternion();
+    }
+    Frame reference = reference();
+    if (reference == null) {
+      _worldPosition.set(translation());
+      _worldOrientation.set(rotation());
+      _worldMagnitude = scaling();
+    } else {
+      reference._validateWorldCache();
+      _worldMagnitude = reference._worldMagnitude * scaling();
+      Quaternion.compose(reference._worldOrientation, rotation(), _worldOrientation);
+      reference._worldLocation(translation(), _worldPosition);
+    }
+    _worldMatrix = null;
+    _cacheVersion = _worldVersion();
+  }
+
+  /**
+   * Internal use. Updates the world transform cache only if it is not valid, i.e., if the
+   * frame or one of its ancestors has been modified since the cache was computed (see
+   * {@link #_worldVersion()}).
+   */
+  protected void _validateWorldCache() {
+    if (_store != null) {
+      _store.update();
+      if (_storeVersion != _store._version)
+        _updateWorldCacheFromStore();
+    } else if (_cacheVersion != _worldVersion())
+      _updateWorldCache();
+  }
+
+  /**
+   * Internal use. Updates the world transform cache from the {@link #store()} world arrays.
+   */
+  protected void _updateWorldCacheFromStore() {
+    if (_worldPosition == null) {
+      _worldPosition = new Vector();
+      _worldOrientation = new Quaternion();
+    }
+    int i3 = 3 * _storeIndex, i4 = 4 * _storeIndex;
+    float[] position = _store._position, orientation = _store._orientation;
+    _worldPosition.set(position[i3], position[i3 + 1], position[i3 + 2]);
+    _worldOrientation._quaternion[0] = orientation[i4];
+    _worldOrientation._quaternion[1] = orientation[i4 + 1];
+    _worldOrientation._quaternion[2] = orientation[i4 + 2];
+    _worldOrientation._quaternion[3] = orientation[i4 + 3];
+    _worldMagnitude = _store._magnitude[_storeIndex];
+    _worldMatrix = null;
+    _storeVersion = _store._version;
+  }
+
+  /**
+   * Returns the {@link TransformStore} backing this frame, or {@code null} if the frame
+   * is not backed by a store (default). Use {@link TransformStore#add(Frame)} to back
+   * the frame by a store.
+   *
+   * @see TransformStore
+   */
+  public TransformStore store() {
+    return _store;
+  }
+
+  // SIMULATION
+
+  /**
+   * Internal use. Returns {@code true} if the frame {@link #graph()} timing handler runs
+   * a fixed timestep simulation.
+   *
+   * @see TimingHandler#enableFixedTimestep(boolean)
+   */
+  protected boolean _isSimulated() {
+    return _graph != null && _graph.timingHandler() != null && _graph.timingHandler().isFixedTimestepEnabled();
+  }
+
+  /**
+   * Internal use. Keeps track of the frame last two simulation states. Called by
+   * {@link #_modified()}, so that only modified frames pay for it: the first modification
+   * within a new simulation step (see {@link TimingHandler#stepCount}) turns the state
+   * recorded at the last modification into the previous state. Modifications taking place
+   * outside of the simulation steps (e.g., by user interaction) cancel the interpolation
+   * until the next step, so that the frame is rendered where it is tracked and culled.
+   */
+  protected void _snapshot() {
+    // the frame is still being constructed
+    if (_translation == null || _rotation == null)
+      return;
+    if (_stepTranslation == null) {
+      _stepTranslation = translation().get();
+      _stepRotation = rotation().get();
+      _stepScaling = scaling();
+      _previousTranslation = new Vector();
+      _previousRotation = new Quaternion();
+      _interpolatedTranslation = new Vector();
+      _interpolatedRotation = new Quaternion();
+      _step = -1;
+    }
+    if (_step != TimingHandler.stepCount) {
+      _previousTranslation.set(_stepTranslation);
+      _previousRotation.set(_stepRotation);
+      _previousScaling = _stepScaling;
+      _step = TimingHandler.stepCount;
+    }
+    _stepTranslation.set(translation());
+    _stepRotation.set(rotation());
+    _stepScaling = scaling();
+    if (!_graph.timingHandler().isStepping())
+      _step = -1;
+  }
+
+  /**
+   * Internal use. Returns {@code true} if the frame was modified during the last simulation
+   * step (and not since), and hence should be rendered interpolated between its previous and
+   * current states.
+   */
+  protected boolean _isInterpolated() {
+    return _step == TimingHandler.stepCount && _isSimulated();
+  }
+
+  /**
+   * Returns the {@link #translation()} interpolated between the frame last two simulation
+   * states according to the timing handler {@link TimingHandler#alpha()}. Returns the
+   * {@link #translation()} itself if the frame wasn't modified during the last simulation
+   * step, if it has been modified outside of the simulation steps since (see
+   * {@link TimingHandler#isStepping()}) or if the fixed timestep simulation is disabled.
+   * Used when rendering the frame.
+   * <p>
+   * Note that the returned vector is kept by the frame, don't modify it.
+   *
+   * @see TimingHandler#enableFixedTimestep(boolean)
+   * @see #interpolatedRotation()
+   * @see #interpolatedScaling()
+   */
+  public Vector interpolatedTranslation() {
+    if (!_isInterpolated())
+      return translation();
+    _interpolatedTranslation.set(_previousTranslation);
+    _interpolatedTranslation.lerp(translation(), graph().timingHandler().alpha());
+    return _interpolatedTranslation;
+  }
+
+  /**
+   * Returns the {@link #rotation()} interpolated between the frame last two simulation
+   * states. See {@link #interpolatedTranslation()} for details.
+   * <p>
+   * Note that the returned quaternion is kept by the frame, don't modify it.
+   */
+  public Quaternion interpolatedRotation() {
+    if (!_isInterpolated())
+      return rotation();
+    Quaternion.slerp(_previousRotation, rotation(), graph().timingHandler().alpha(), true, _interpolatedRotation);
+    _interpolatedRotation.normalize();
+    return _interpolatedRotation;
+  }
+
+  /**
+   * Returns the {@link #scaling()} interpolated between the frame last two simulation
+   * states. See {@link #interpolatedTranslation()} for details.
+   */
+  public float interpolatedScaling() {
+    if (!_isInterpolated())
+      return scaling();
+    return Vector.lerp(_previousScaling, scaling(), graph().timingHandler().alpha());
   }
 
   // REFERENCE_FRAME
@@ -586,7 +852,8 @@ public class Frame {
    * Using this method, you can create a hierarchy of frames. This hierarchy needs to be a
    * tree, which root is the world coordinate system (i.e., {@code null}
    * {@link #reference()}). No action is performed if setting {@code reference} as the
-   * {@link #reference()} would create a loop in the hierarchy.
+   * {@link #reference()} would create a loop in the hierarchy, nor if the frame and
+   * {@code reference} are backed by different stores (see {@link #store()}).
    */
   public void setReference(Frame frame) {
     if (frame == this) {
@@ -597,6 +864,10 @@ public class Frame {
       System.out.println("A Frame descendant cannot be set as its reference.");
       return;
     }
+    if (frame != null && _store != null && !_store._accepts(frame)) {
+      System.out.println("Warning: a Frame backed by a store cannot have a reference backed by another store. Nothing done");
+      return;
+    }
     if (frame != null)
       if ((isDetached() && !frame.isDetached()) || !frame.isAttached(graph())) {
         System.out.println("Both frame and its reference should be detached, or attached to the same graph.");
@@ -649,6 +920,11 @@ public class Frame {
       return false;
     if (_hasChild(frame))
       return false;
+    frame._boundsAreValid = false;
+    _invalidateBounds();
+    for (Frame ancestor = this; ancestor != null && ancestor._branchUpdate < frame._branchUpdate; ancestor = ancestor.reference())
+      ancestor._branchUpdate = frame._branchUpdate;
+    _branchModified();
     return _children.add(frame);
   }
 
@@ -661,6 +937,8 @@ public class Frame {
     while (it.hasNext()) {
       if (it.next() == frame) {
         it.remove();
+        _invalidateBounds();
+        _branchModified();
         result = true;
         break;
       }
@@ -979,7 +1257,30 @@ public class Frame {
    * @see #translation()
    */
   public Vector position() {
-    return worldLocation(new Vector(0, 0, 0));
+    _validateWorldCache();
+    return _worldPosition.get();
+  }
+
+  /**
+   * Stores the frame {@link #position()} into {@code target} (if null, a new vector will be
+   * created) which is then returned.
+   *
+   * @see #position()
+   */
+  public Vector position(Vector target) {
+    _validateWorldCache();
+    if (target == null)
+      target = new Vector();
+    target.set(_worldPosition);
+    return target;
+  }
+
+  /**
+   * Internal use. Returns the cached world position, without copying it. Don't modify it.
+   */
+  protected Vector _position() {
+    _validateWorldCache();
+    return _worldPosition;
   }
 
   /**
@@ -1189,13 +1490,30 @@ public class Frame {
    * @see #rotation()
    */
   public Quaternion orientation() {
-    Quaternion quaternion = rotation().get();
-    Frame reference = reference();
-    while (reference != null) {
-      quaternion = Quaternion.compose(reference.rotation(), quaternion);
-      reference = reference.reference();
-    }
-    return quaternion;
+    _validateWorldCache();
+    return _worldOrientation.get();
+  }
+
+  /**
+   * Stores the frame {@link #orientation()} into {@code target} (if null, a new quaternion
+   * will be created) which is then returned.
+   *
+   * @see #orientation()
+   */
+  public Quaternion orientation(Quaternion target) {
+    _validateWorldCache();
+    if (target == null)
+      target = new Quaternion();
+    target.set(_worldOrientation, false);
+    return target;
+  }
+
+  /**
+   * Internal use. Returns the cached world orientation, without copying it. Don't modify it.
+   */
+  protected Quaternion _orientation() {
+    _validateWorldCache();
+    return _worldOrientation;
   }
 
   /**
@@ -1273,10 +1591,8 @@ public class Frame {
    * @see #projection(Graph.Type, float, float, float, float, boolean)
    */
   public float magnitude() {
-    if (reference() != null)
-      return reference().magnitude() * scaling();
-    else
-      return scaling();
+    _validateWorldCache();
+    return _worldMagnitude;
   }
 
   /**
@@ -1650,24 +1966,32 @@ public class Frame {
    * @see #view()
    */
   public Matrix matrix() {
-    Matrix matrix = rotation().matrix();
+    return _matrix(translation(), rotation(), scaling());
+  }
 
-    matrix._matrix[12] = translation()._vector[0];
-    matrix._matrix[13] = translation()._vector[1];
-    matrix._matrix[14] = translation()._vector[2];
+  /**
+   * Internal use. Returns the matrix defined from the {@code translation}, {@code rotation}
+   * and {@code scaling} parameters. Used by {@link #matrix()} and {@link #worldMatrix()}.
+   */
+  protected static Matrix _matrix(Vector translation, Quaternion rotation, float scaling) {
+    Matrix matrix = rotation.matrix();
 
-    if (scaling() != 1) {
-      matrix.setM00(matrix.m00() * scaling());
-      matrix.setM10(matrix.m10() * scaling());
-      matrix.setM20(matrix.m20() * scaling());
+    matrix._matrix[12] = translation._vector[0];
+    matrix._matrix[13] = translation._vector[1];
+    matrix._matrix[14] = translation._vector[2];
 
-      matrix.setM01(matrix.m01() * scaling());
-      matrix.setM11(matrix.m11() * scaling());
-      matrix.setM21(matrix.m21() * scaling());
+    if (scaling != 1) {
+      matrix.setM00(matrix.m00() * scaling);
+      matrix.setM10(matrix.m10() * scaling);
+      matrix.setM20(matrix.m20() * scaling);
 
-      matrix.setM02(matrix.m02() * scaling());
-      matrix.setM12(matrix.m12() * scaling());
-      matrix.setM22(matrix.m22() * scaling());
+      matrix.setM01(matrix.m01() * scaling);
+      matrix.setM11(matrix.m11() * scaling);
+      matrix.setM21(matrix.m21() * scaling);
+
+      matrix.setM02(matrix.m02() * scaling);
+      matrix.setM12(matrix.m12() * scaling);
+      matrix.setM22(matrix.m22() * scaling);
     }
 
     return matrix;
@@ -1698,10 +2022,37 @@ public class Frame {
    * @see #view()
    */
   public Matrix worldMatrix() {
-    if (reference() != null)
-      return new Frame(position(), orientation(), magnitude()).matrix();
-    else
+    if (reference() == null)
       return matrix();
+    _updateWorldTransform();
+    return _worldMatrix.get();
+  }
+
+  /**
+   * Stores the frame {@link #worldMatrix()} into {@code target} (if null, a new matrix will
+   * be created) which is then returned.
+   *
+   * @see #worldMatrix()
+   */
+  public Matrix worldMatrix(Matrix target) {
+    _updateWorldTransform();
+    if (target == null)
+      target = new Matrix();
+    target.set(_worldMatrix);
+    return target;
+  }
+
+  /**
+   * Internal use. Updates (only if needed) the world transform cache, including the
+   * {@link #worldMatrix()}.
+   * <p>
+   * Used by {@link Graph#updateTransforms()} which may call it concurrently on different
+   * frames, once the frame {@link #reference()} has been updated.
+   */
+  protected void _updateWorldTransform() {
+    _validateWorldCache();
+    if (_worldMatrix == null)
+      _worldMatrix = _matrix(_worldPosition, _worldOrientation, _worldMagnitude);
   }
 
   /**
@@ -1959,7 +2310,10 @@ public class Frame {
    * @see #worldDisplacement(Vector)
    */
   public Vector displacement(Vector vector, Frame frame) {
-    return this == frame ? vector : _displacement(reference() != null ? reference().displacement(vector, frame) : frame == null ? vector : frame.worldDisplacement(vector));
+    if (this == frame)
+      return vector;
+    Vector world = frame == null ? vector : frame.worldDisplacement(vector);
+    return _worldDisplacementInverse(world, frame == null ? null : world);
   }
 
   /**
@@ -1971,13 +2325,21 @@ public class Frame {
    * @see #displacement(Vector, Frame)
    */
   public Vector worldDisplacement(Vector vector) {
-    Frame frame = this;
-    Vector result = vector;
-    while (frame != null) {
-      result = frame._referenceDisplacement(result);
-      frame = frame.reference();
-    }
-    return result;
+    _validateWorldCache();
+    Vector result = Vector.multiply(vector, _worldMagnitude, null);
+    return _worldOrientation.rotate(result, result);
+  }
+
+  /**
+   * Converts the world {@code vector} displacement to this frame using the world transform
+   * cache. The result is stored in {@code target} (if null, a new vector will be created)
+   * which is then returned.
+   */
+  protected Vector _worldDisplacementInverse(Vector vector, Vector target) {
+    _validateWorldCache();
+    target = _worldOrientation.inverseRotate(vector, target);
+    target.divide(_worldMagnitude);
+    return target;
   }
 
   /**
@@ -1989,7 +2351,17 @@ public class Frame {
    * @see #displacement(Vector)
    */
   protected Vector _displacement(Vector vector) {
-    return Vector.divide(rotation().inverseRotate(vector), scaling());
+    return _displacement(vector, null);
+  }
+
+  /**
+   * Same as {@link #_displacement(Vector)}, but stores the result in {@code target} (if null,
+   * a new vector will be created) which is then returned. {@code target} may be {@code vector}.
+   */
+  protected Vector _displacement(Vector vector, Vector target) {
+    target = rotation().inverseRotate(vector, target);
+    target.divide(scaling());
+    return target;
   }
 
   /**
@@ -2001,7 +2373,17 @@ public class Frame {
    * @see #worldDisplacement(Vector)
    */
   protected Vector _referenceDisplacement(Vector vector) {
-    return rotation().rotate(Vector.multiply(vector, scaling()));
+    return _referenceDisplacement(vector, null);
+  }
+
+  /**
+   * Same as {@link #_referenceDisplacement(Vector)}, but stores the result in {@code target}
+   * (if null, a new vector will be created) which is then returned. {@code target} may be
+   * {@code vector}.
+   */
+  protected Vector _referenceDisplacement(Vector vector, Vector target) {
+    target = Vector.multiply(vector, scaling(), target);
+    return rotation().rotate(target, target);
   }
 
   // POINT CONVERSION
@@ -2027,7 +2409,10 @@ public class Frame {
    * @see #worldLocation(Vector)
    */
   public Vector location(Vector vector, Frame frame) {
-    return this == frame ? vector : _location(reference() != null ? reference().location(vector, frame) : frame == null ? vector : frame.worldLocation(vector));
+    if (this == frame)
+      return vector;
+    Vector world = frame == null ? vector : frame.worldLocation(vector);
+    return _worldLocationInverse(world, frame == null ? null : world);
   }
 
   /**
@@ -2039,13 +2424,33 @@ public class Frame {
    * @see #location(Vector, Frame)
    */
   public Vector worldLocation(Vector vector) {
-    Frame frame = this;
-    Vector result = vector;
-    while (frame != null) {
-      result = frame._referenceLocation(result);
-      frame = frame.reference();
-    }
-    return result;
+    return _worldLocation(vector, null);
+  }
+
+  /**
+   * Converts {@code vector} location from this frame to world using the world transform
+   * cache. The result is stored in {@code target} (if null, a new vector will be created)
+   * which is then returned. {@code target} may be {@code vector}.
+   */
+  protected Vector _worldLocation(Vector vector, Vector target) {
+    _validateWorldCache();
+    target = Vector.multiply(vector, _worldMagnitude, target);
+    _worldOrientation.rotate(target, target);
+    target.add(_worldPosition);
+    return target;
+  }
+
+  /**
+   * Converts the world {@code vector} location to this frame using the world transform
+   * cache. The result is stored in {@code target} (if null, a new vector will be created)
+   * which is then returned. {@code target} may be {@code vector}.
+   */
+  protected Vector _worldLocationInverse(Vector vector, Vector target) {
+    _validateWorldCache();
+    target = Vector.subtract(vector, _worldPosition, target);
+    _worldOrientation.inverseRotate(target, target);
+    target.divide(_worldMagnitude);
+    return target;
   }
 
   /**
@@ -2057,7 +2462,18 @@ public class Frame {
    * @see #location(Vector)
    */
   protected Vector _location(Vector vector) {
-    return Vector.divide(rotation().inverseRotate(Vector.subtract(vector, translation())), scaling());
+    return _location(vector, null);
+  }
+
+  /**
+   * Same as {@link #_location(Vector)}, but stores the result in {@code target} (if null,
+   * a new vector will be created) which is then returned. {@code target} may be {@code vector}.
+   */
+  protected Vector _location(Vector vector, Vector target) {
+    target = Vector.subtract(vector, translation(), target);
+    rotation().inverseRotate(target, target);
+    target.divide(scaling());
+    return target;
   }
 
   /**
@@ -2069,7 +2485,19 @@ public class Frame {
    * @see #worldLocation(Vector)
    */
   protected Vector _referenceLocation(Vector vector) {
-    return Vector.add(rotation().rotate(Vector.multiply(vector, scaling())), translation());
+    return _referenceLocation(vector, null);
+  }
+
+  /**
+   * Same as {@link #_referenceLocation(Vector)}, but stores the result in {@code target} (if
+   * null, a new vector will be created) which is then returned. {@code target} may be
+   * {@code vector}.
+   */
+  protected Vector _referenceLocation(Vector vector, Vector target) {
+    target = Vector.multiply(vector, scaling(), target);
+    rotation().rotate(target, target);
+    target.add(translation());
+    return target;
   }
 
   // Attached frames
@@ -2131,6 +2559,157 @@ public class Frame {
   public void interact(Object... gesture) {
   }
 
+  // Bounding volume
+
+  /**
+   * Same as {@code setBoundingBall(new Vector(), radius)}.
+   *
+   * @see #setBoundingBall(Vector, float)
+   */
+  public void setBoundingBall(float radius) {
+    setBoundingBall(new Vector(), radius);
+  }
+
+  /**
+   * Sets the frame bounding volume to the ball of the given {@code center} and
+   * {@code radius}, both defined in the frame coordinate system. The bounding volume
+   * should enclose everything that is drawn in {@link #visit()} (the frame children
+   * excluded).
+   * <p>
+   * Bounding volumes are used by the {@link Graph#traverse()} algorithm to automatically
+   * cull the invisible frames when {@link Graph#isFrustumCullingEnabled()}.
+   *
+   * @see #setBoundingBox(Vector, Vector)
+   * @see #resetBoundingVolume()
+   */
+  public void setBoundingBall(Vector center, float radius) {
+    if (radius < 0) {
+      System.out.println("Warning: bounding ball radius should be non-negative. Nothing done");
+      return;
+    }
+    _boundingCenter = center.get();
+    _boundingExtent = null;
+    _boundingRadius = radius;
+    _invalidateBounds();
+  }
+
+  /**
+   * Sets the frame bounding volume to the axis aligned box (defined by corners
+   * {@code corner1} and {@code corner2} in the frame coordinate system). The bounding
+   * volume should enclose everything that is drawn in {@link #visit()} (the frame
+   * children excluded).
+   * <p>
+   * Bounding volumes are used by the {@link Graph#traverse()} algorithm to automatically
+   * cull the invisible frames when {@link Graph#isFrustumCullingEnabled()}.
+   *
+   * @see #setBoundingBall(Vector, float)
+   * @see #resetBoundingVolume()
+   */
+  public void setBoundingBox(Vector corner1, Vector corner2) {
+    _boundingCenter = Vector.multiply(Vector.add(corner1, corner2), 0.5f);
+    _boundingExtent = Vector.subtract(corner2, corner1);
+    _boundingExtent.set(Math.abs(_boundingExtent.x()) / 2, Math.abs(_boundingExtent.y()) / 2,
+        Math.abs(_boundingExtent.z()) / 2);
+    _boundingRadius = _boundingExtent.magnitude();
+    _invalidateBounds();
+  }
+
+  /**
+   * Removes the frame bounding volume. Frames without a bounding volume are regarded as
+   * empty, i.e., they are only bounded by their descendants' bounding volumes.
+   *
+   * @see #hasBoundingVolume()
+   */
+  public void resetBoundingVolume() {
+    _boundingCenter = null;
+    _boundingExtent = null;
+    _invalidateBounds();
+  }
+
+  /**
+   * Returns {@code true} if the frame has a bounding volume and {@code false} otherwise.
+   *
+   * @see #setBoundingBall(Vector, float)
+   * @see #setBoundingBox(Vector, Vector)
+   */
+  public boolean hasBoundingVolume() {
+    return _boundingCenter != null;
+  }
+
+  /**
+   * Internal use. Invalidates the hierarchical bounds of this frame and its ancestors.
+   * The walk stops at the first already invalid ancestor, since all of its ancestors
+   * are invalid too.
+   */
+  protected void _invalidateBounds() {
+    for (Frame frame = this; frame != null && frame._boundsAreValid; frame = frame.reference())
+      frame._boundsAreValid = false;
+  }
+
+  /**
+   * Internal use. Updates the world ball enclosing the frame bounding volume together with
+   * those of all its descendants. Only outdated bounds (i.e., bounds of frames having
+   * modified ancestors or descendants, or being modified themselves) are recomputed. A negative radius means the
+   * branch has no bounding volume at all.
+   *
+   * @see Graph#enableFrustumCulling(boolean)
+   */
+  protected void _updateBounds() {
+    if (_areBoundsValid())
+      return;
+    if (_boundsCenter == null)
+      _boundsCenter = new Vector();
+    _boundsRadius = -1;
+    if (_boundingCenter != null) {
+      _worldLocation(_boundingCenter, _boundsCenter);
+      _boundsRadius = _boundingRadius * _worldMagnitude;
+    }
+    for (Frame child : children()) {
+      child._updateBounds();
+      if (child._boundsRadius >= 0)
+        _mergeBounds(child._boundsCenter, child._boundsRadius);
+    }
+    _boundsVersion = _worldVersion();
+    _boundsAreValid = true;
+  }
+
+  /**
+   * Internal use. Returns {@code true} if the hierarchical bounds are up to date, i.e.,
+   * if neither the frame branch nor its ancestors have been modified since they were
+   * computed by {@link #_updateBounds()}.
+   */
+  protected boolean _areBoundsValid() {
+    return _boundsAreValid && _boundsVersion == _worldVersion();
+  }
+
+  /**
+   * Used by {@link #_updateBounds()}. Grows the world bounds ball to enclose the one
+   * defined by {@code center} and {@code radius}.
+   */
+  protected void _mergeBounds(Vector center, float radius) {
+    if (_boundsRadius < 0) {
+      _boundsCenter.set(center);
+      _boundsRadius = radius;
+      return;
+    }
+    float dx = center._vector[0] - _boundsCenter._vector[0];
+    float dy = center._vector[1] - _boundsCenter._vector[1];
+    float dz = center._vector[2] - _boundsCenter._vector[2];
+    float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (distance + radius <= _boundsRadius)
+      return;
+    if (distance + _boundsRadius <= radius) {
+      _boundsCenter.set(center);
+      _boundsRadius = radius;
+      return;
+    }
+    float newRadius = (distance + radius + _boundsRadius) / 2;
+    float t = (newRadius - _boundsRadius) / distance;
+    _boundsCenter.set(_boundsCenter._vector[0] + dx * t, _boundsCenter._vector[1] + dy * t,
+        _boundsCenter._vector[2] + dz * t);
+    _boundsRadius = newRadius;
+  }
+
   /**
    * Procedure called on the frame by the graph traversal algorithm. Default implementation is
    * empty, i.e., it is meant to be implemented by derived classes. Only meaningful if the frame
@@ -2153,6 +2732,10 @@ public class Frame {
    * }
    * }
    * </pre>
+   * <p>
+   * Alternatively, set the frame bounding volume (see {@link #setBoundingBall(Vector, float)}
+   * and {@link #setBoundingBox(Vector, Vector)}) and let the graph automatically cull the
+   * branches lying outside the eye boundary (see {@link Graph#enableFrustumCulling(boolean)}).
    *
    * @see Graph#traverse()
    * @see #cull(boolean)
@@ -2183,6 +2766,8 @@ public class Frame {
   public void cull(boolean cull) {
     if (isDetached())
       System.out.println("Warning: culling a detached frame does nothing");
+    if (_culled != cull)
+      _branchModified();
     _culled = cull;
   }
 
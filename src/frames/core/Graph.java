@@ -12,6 +12,7 @@ package frames.core;
 
 import frames.primitives.*;
 import frames.timing.Animator;
+import frames.timing.Histogram;
 import frames.timing.TimingHandler;
 import frames.timing.TimingTask;
 
@@ -19,6 +20,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A 2D or 3D scene graph providing eye, input and timing handling to a raster or ray-tracing
@@ -42,6 +45,10 @@ import java.util.List;
  * The graph provides other useful routines to handle the hierarchy, such as
  * {@link #pruneBranch(Frame)}, {@link #appendBranch(List)}, {@link #isReachable(Frame)},
  * {@link #branch(Frame)}, and {@link #clear()}.
+ * <p>
+ * The world transformations of all the graph frames may be updated in parallel, before
+ * the sequential visit of the frames takes place, see {@link #updateTransforms()} and
+ * {@link #enableTransformUpdate()}.
  * <h2>2.1. Eye handling</h2>
  * Any {@link Frame} (belonging or not to the graph hierarchy) may be set as the {@link #eye()}
  * (see {@link #setEye(Frame)}). Several frame wrapper functions to handle the eye, such as
@@ -128,7 +135,16 @@ import java.util.List;
 public class Graph {
   // 1. Eye
   protected Frame _eye;
-  protected long _lastEqUpdate;
+  // eye parameters at the current _viewVersion(), see _viewVersion()
+  protected long _viewVersion;
+  protected Frame _viewEye;
+  protected long _viewEyeVersion = -1;
+  protected Type _viewType;
+  protected int _viewWidth, _viewHeight;
+  protected float _viewZNear, _viewZFar;
+  protected boolean _viewLeftHanded;
+  // _viewVersion() the boundary equations were computed at
+  protected long _eqVersion = -1;
   protected Vector _center;
   protected float _radius;
   protected Vector _anchor;
@@ -147,6 +163,8 @@ public class Graph {
 
   // 2. Matrix helper
   protected MatrixHandler _matrixHandler;
+  // used by applyTransformation to avoid per frame allocations
+  protected Vector _axis = new Vector();
 
   // 3. Handlers
   protected class Tuple {
@@ -162,10 +180,27 @@ public class Graph {
   protected TimingHandler _timingHandler;
   protected HashMap<String, Frame> _agents;
   protected ArrayList<Tuple> _tuples;
+  protected boolean _trackingIndex;
+  protected TrackingGrid _trackingGrid;
+  // frame screen projection scratch, see _projection(Frame)
+  protected Vector _projection = new Vector();
 
   // 4. Graph
   protected List<Frame> _seeds;
   protected long _lastNonEyeUpdate = 0;
+  protected boolean _transformUpdate;
+  public static int PARALLEL_THRESHOLD = 1024;
+  /**
+   * Minimum number of points for {@link #screenLocations(float[], float[], int, Frame)} and
+   * {@link #locations(float[], float[], int, Frame)} to split the batch among the fork/join
+   * workers.
+   */
+  public static int BATCH_PARALLEL_THRESHOLD = 32768;
+  // batch (un)projection matrices
+  protected Matrix _batchMatrix = new Matrix();
+  protected Matrix _batchInverse = new Matrix();
+  protected boolean _frustumCulling;
+  protected Vector _cullingNormal = new Vector();
 
   // 5. Interaction methods
   Vector _upVector;
@@ -493,7 +528,7 @@ public class Graph {
    * @see #zFar()
    */
   public float zNear() {
-    float z = Vector.scalarProjection(Vector.subtract(eye().position(), center()), eye().zAxis()) - zClippingCoefficient() * radius();
+    float z = _centerDepth() - zClippingCoefficient() * radius();
 
     // Prevents negative or null zNear values.
     float zMin = zNearCoefficient() * zClippingCoefficient() * radius();
@@ -523,7 +558,25 @@ public class Graph {
    * @see #zNear()
    */
   public float zFar() {
-    return Vector.scalarProjection(Vector.subtract(eye().position(), center()), eye().zAxis()) + zClippingCoefficient() * radius();
+    return _centerDepth() + zClippingCoefficient() * radius();
+  }
+
+  /**
+   * Same as {@code Vector.scalarProjection(Vector.subtract(eye().position(), center()), eye().zAxis())},
+   * but computed from the eye world transform cache without allocating. Used by {@link #zNear()}
+   * and {@link #zFar()}.
+   */
+  protected float _centerDepth() {
+    Frame eye = eye();
+    eye._validateWorldCache();
+    float[] position = eye._worldPosition._vector;
+    float[] center = center()._vector;
+    float[] q = eye._worldOrientation._quaternion;
+    // eye z-axis, i.e., the image of (0,0,1) by the (unit) eye orientation
+    float x = 2 * (q[0] * q[2] + q[3] * q[1]);
+    float y = 2 * (q[1] * q[2] - q[3] * q[0]);
+    float z = 1 - 2 * (q[0] * q[0] + q[1] * q[1]);
+    return (position[0] - center[0]) * x + (position[1] - center[1]) * y + (position[2] - center[2]) * z;
   }
 
   /**
@@ -790,6 +843,43 @@ public class Graph {
       _collect(list, child);
   }
 
+  /**
+   * Returns a list of all the reachable frames whose world transformation was updated after
+   * {@code frameCount}, i.e., those having a {@link Frame#lastUpdate()} greater than it.
+   * Useful to only process deltas downstream (e.g., to upload the world matrices of the
+   * modified frames to the GPU, or to synchronize them with a physics or network engine).
+   * Frames are returned in traversal order.
+   * <p>
+   * Every frame keeps track of the last frame count at which its branch was modified, so
+   * that the branches having no modifications since {@code frameCount} are skipped
+   * altogether.
+   *
+   * @see #frames()
+   * @see TimingHandler#frameCount
+   */
+  public List<Frame> updatedFrames(long frameCount) {
+    ArrayList<Frame> list = new ArrayList<Frame>();
+    for (Frame frame : _leadingFrames())
+      _collectUpdated(list, frame, frameCount);
+    return list;
+  }
+
+  /**
+   * Used by {@link #updatedFrames(long)}. Collects the {@code frame} branch frames updated
+   * after {@code frameCount}.
+   */
+  protected void _collectUpdated(List<Frame> list, Frame frame, long frameCount) {
+    if (frame._branchUpdate <= frameCount)
+      return;
+    // all the descendants of a modified frame have an updated world transformation
+    if (frame._lastUpdate > frameCount) {
+      _collect(list, frame);
+      return;
+    }
+    for (Frame child : frame.children())
+      _collectUpdated(list, child, frameCount);
+  }
+
   // Timing stuff
 
   /**
@@ -809,6 +899,54 @@ public class Graph {
     return timingHandler().frameCount();
   }
 
+  /**
+   * Convenience wrapper function that simply calls {@code timingHandler().enableProfiling(enable)}.
+   *
+   * @see frames.timing.TimingHandler#enableProfiling(boolean)
+   */
+  public void enableProfiling(boolean enable) {
+    timingHandler().enableProfiling(enable);
+  }
+
+  /**
+   * Convenience wrapper function that simply calls {@code timingHandler().enableProfiling()}.
+   *
+   * @see frames.timing.TimingHandler#enableProfiling()
+   */
+  public void enableProfiling() {
+    timingHandler().enableProfiling();
+  }
+
+  /**
+   * Convenience wrapper function that simply calls {@code timingHandler().disableProfiling()}.
+   *
+   * @see frames.timing.TimingHandler#disableProfiling()
+   */
+  public void disableProfiling() {
+    timingHandler().disableProfiling();
+  }
+
+  /**
+   * Convenience wrapper function that simply returns {@code timingHandler().isProfilingEnabled()}.
+   *
+   * @see frames.timing.TimingHandler#isProfilingEnabled()
+   */
+  public boolean isProfilingEnabled() {
+    return timingHandler().isProfilingEnabled();
+  }
+
+  /**
+   * Convenience wrapper function that simply returns {@code timingHandler().histogram(phase)},
+   * i.e., the histogram of the {@code phase} durations in nanoseconds. For instance,
+   * {@code histogram(TimingHandler.Phase.TRAVERSE).percentile(99)} returns the 99th
+   * percentile of the {@link #traverse()} durations.
+   *
+   * @see frames.timing.TimingHandler#histogram(TimingHandler.Phase)
+   */
+  public Histogram histogram(TimingHandler.Phase phase) {
+    return timingHandler().histogram(phase);
+  }
+
   /**
    * Convenience wrapper function that simply calls {@code timingHandler().registerTask(task)}.
    *
@@ -996,6 +1134,8 @@ public class Graph {
    * <li>Updates the view matrix by calling {@code eye().view()}.</li>
    * <li>Calls {@link #updateBoundaryEquations()} if {@link #areBoundaryEquationsEnabled()}</li>
    * </ol>
+   * Note that the projection and view matrices, and the boundary equations, are only
+   * recomputed when the eye parameters have actually changed since the previous call.
    *
    * @see #fov()
    * @see TimingHandler#handle()
@@ -1003,12 +1143,43 @@ public class Graph {
    * @see Frame#view()
    */
   public void preDraw() {
+    long start = System.nanoTime();
     timingHandler().handle();
     matrixHandler()._bind();
-    if (areBoundaryEquationsEnabled() && (eye().lastUpdate() > _lastEqUpdate || _lastEqUpdate == 0)) {
+    if (areBoundaryEquationsEnabled() && _eqVersion != _viewVersion()) {
       updateBoundaryEquations();
-      _lastEqUpdate = TimingHandler.frameCount;
+      _eqVersion = _viewVersion;
+    }
+    timingHandler().profile(TimingHandler.Phase.PRE_DRAW, start);
+  }
+
+  /**
+   * Returns a number that is increased whenever any of the parameters the eye projection,
+   * view and boundary equations are computed from changes, i.e., the {@link #eye()} frame
+   * (or any of its ancestors), {@link #type()}, {@link #width()}, {@link #height()},
+   * {@link #isLeftHanded()} and the {@link #zNear()} and {@link #zFar()} values.
+   * <p>
+   * Used to recompute those eye derived quantities only when needed.
+   *
+   * @see MatrixHandler#_validateCache()
+   */
+  protected long _viewVersion() {
+    Frame eye = eye();
+    long version = eye._worldVersion();
+    float zNear = zNear(), zFar = zFar();
+    if (eye != _viewEye || version != _viewEyeVersion || type() != _viewType || width() != _viewWidth
+        || height() != _viewHeight || isLeftHanded() != _viewLeftHanded || zNear != _viewZNear || zFar != _viewZFar) {
+      _viewEye = eye;
+      _viewEyeVersion = version;
+      _viewType = type();
+      _viewWidth = width();
+      _viewHeight = height();
+      _viewLeftHanded = isLeftHanded();
+      _viewZNear = zNear;
+      _viewZFar = zFar;
+      _viewVersion++;
     }
+    return _viewVersion;
   }
 
   // Eye stuff
@@ -1154,9 +1325,8 @@ public class Graph {
     for (int i = 0; i < (is3D() ? 6 : 4); ++i) {
       boolean allOut = true;
       for (int c = 0; c < 8; ++c) {
-        Vector pos = new Vector(((c & 4) != 0) ? corner1._vector[0] : corner2._vector[0], ((c & 2) != 0) ? corner1._vector[1] : corner2._vector[1],
-            ((c & 1) != 0) ? corner1._vector[2] : corner2._vector[2]);
-        if (distanceToBoundary(i, pos) > 0.0)
+        if (_distanceToBoundary(i, ((c & 4) != 0) ? corner1._vector[0] : corner2._vector[0], ((c & 2) != 0) ? corner1._vector[1] : corner2._vector[1],
+            ((c & 1) != 0) ? corner1._vector[2] : corner2._vector[2]) > 0.0)
           allInForAllPlanes = false;
         else
           allOut = false;
@@ -1225,12 +1395,14 @@ public class Graph {
 
   protected float[][] _updateBoundaryEquations3() {
     // Computed once and for all
-    Vector pos = eye().position();
-    Vector viewDir = viewDirection();
-    Vector up = upVector();
-    Vector right = rightVector();
+    Vector pos = eye()._position();
+    float[] viewDir = viewDirection()._vector;
+    float[] up = upVector()._vector;
+    float[] right = rightVector()._vector;
 
-    float posViewDir = Vector.dot(pos, viewDir);
+    float posViewDir = pos.dot(viewDir[0], viewDir[1], viewDir[2]);
+    float posRight = pos.dot(right[0], right[1], right[2]);
+    float posUp = pos.dot(up[0], up[1], up[2]);
 
     switch (type()) {
       case PERSPECTIVE: {
@@ -1238,23 +1410,15 @@ public class Graph {
         float hhfov = 2 * (float) Math.atan(eye().magnitude() * aspectRatio()) / 2.0f;
         float chhfov = (float) Math.cos(hhfov);
         float shhfov = (float) Math.sin(hhfov);
-        _normal[0] = Vector.multiply(viewDir, -shhfov);
-        _normal[1] = Vector.add(_normal[0], Vector.multiply(right, chhfov));
-        _normal[0] = Vector.add(_normal[0], Vector.multiply(right, -chhfov));
-        _normal[2] = Vector.multiply(viewDir, -1);
-        _normal[3] = viewDir;
-
         float hfov = fov() / 2.0f;
         float chfov = (float) Math.cos(hfov);
         float shfov = (float) Math.sin(hfov);
-        _normal[4] = Vector.multiply(viewDir, -shfov);
-        _normal[5] = Vector.add(_normal[4], Vector.multiply(up, -chfov));
-        _normal[4] = Vector.add(_normal[4], Vector.multiply(up, chfov));
-
-        for (int i = 0; i < 2; ++i)
-          _distance[i] = Vector.dot(pos, _normal[i]);
-        for (int j = 4; j < 6; ++j)
-          _distance[j] = Vector.dot(pos, _normal[j]);
+        for (int i = 0; i < 3; i++) {
+          _normal[0]._vector[i] = -shhfov * viewDir[i] - chhfov * right[i];
+          _normal[1]._vector[i] = -shhfov * viewDir[i] + chhfov * right[i];
+          _normal[4]._vector[i] = -shfov * viewDir[i] + chfov * up[i];
+          _normal[5]._vector[i] = -shfov * viewDir[i] - chfov * up[i];
+        }
 
         // Natural equations are:
         // dist[0,1,4,5] = pos * normal[0,1,4,5];
@@ -1263,34 +1427,39 @@ public class Graph {
 
         // 2 times less computations using expanded/merged equations. Dir vectors
         // are normalized.
-        float posRightCosHH = chhfov * Vector.dot(pos, right);
+        float posRightCosHH = chhfov * posRight;
         _distance[0] = -shhfov * posViewDir;
         _distance[1] = _distance[0] + posRightCosHH;
         _distance[0] = _distance[0] - posRightCosHH;
-        float posUpCosH = chfov * Vector.dot(pos, up);
+        float posUpCosH = chfov * posUp;
         _distance[4] = -shfov * posViewDir;
         _distance[5] = _distance[4] - posUpCosH;
         _distance[4] = _distance[4] + posUpCosH;
         break;
       }
       case ORTHOGRAPHIC:
-        _normal[0] = Vector.multiply(right, -1);
-        _normal[1] = right;
-        _normal[4] = up;
-        _normal[5] = Vector.multiply(up, -1);
+        for (int i = 0; i < 3; i++) {
+          _normal[0]._vector[i] = -right[i];
+          _normal[1]._vector[i] = right[i];
+          _normal[4]._vector[i] = up[i];
+          _normal[5]._vector[i] = -up[i];
+        }
 
+        // Dir vectors are normalized, e.g., (pos - wh0 * right) * -right = wh0 - pos * right
         float wh0 = eye().magnitude() * width() / 2;
         float wh1 = eye().magnitude() * height() / 2;
-        _distance[0] = Vector.dot(Vector.subtract(pos, Vector.multiply(right, wh0)), _normal[0]);
-        _distance[1] = Vector.dot(Vector.add(pos, Vector.multiply(right, wh0)), _normal[1]);
-        _distance[4] = Vector.dot(Vector.add(pos, Vector.multiply(up, wh1)), _normal[4]);
-        _distance[5] = Vector.dot(Vector.subtract(pos, Vector.multiply(up, wh1)), _normal[5]);
+        _distance[0] = wh0 - posRight;
+        _distance[1] = wh0 + posRight;
+        _distance[4] = wh1 + posUp;
+        _distance[5] = wh1 - posUp;
         break;
     }
 
     // Front and far planes are identical for both camera types.
-    _normal[2] = Vector.multiply(viewDir, -1);
-    _normal[3] = viewDir;
+    for (int i = 0; i < 3; i++) {
+      _normal[2]._vector[i] = -viewDir[i];
+      _normal[3]._vector[i] = viewDir[i];
+    }
     _distance[2] = -posViewDir - zNear();
     _distance[3] = posViewDir + zFar();
 
@@ -1306,21 +1475,25 @@ public class Graph {
 
   protected float[][] _updateBoundaryEquations2() {
     // Computed once and for all
-    Vector pos = eye().position();
-    Vector up = upVector();
-    Vector right = rightVector();
-
-    _normal[0] = Vector.multiply(right, -1);
-    _normal[1] = right;
-    _normal[2] = up;
-    _normal[3] = Vector.multiply(up, -1);
+    Vector pos = eye()._position();
+    float[] up = upVector()._vector;
+    float[] right = rightVector()._vector;
+
+    for (int i = 0; i < 3; i++) {
+      _normal[0]._vector[i] = -right[i];
+      _normal[1]._vector[i] = right[i];
+      _normal[2]._vector[i] = up[i];
+      _normal[3]._vector[i] = -up[i];
+    }
 
+    float posRight = pos.dot(right[0], right[1], right[2]);
+    float posUp = pos.dot(up[0], up[1], up[2]);
     float wh0 = eye().magnitude() * width() / 2;
     float wh1 = eye().magnitude() * height() / 2;
-    _distance[0] = Vector.dot(Vector.subtract(pos, Vector.multiply(right, wh0)), _normal[0]);
-    _distance[1] = Vector.dot(Vector.add(pos, Vector.multiply(right, wh0)), _normal[1]);
-    _distance[2] = Vector.dot(Vector.add(pos, Vector.multiply(up, wh1)), _normal[2]);
-    _distance[3] = Vector.dot(Vector.subtract(pos, Vector.multiply(up, wh1)), _normal[3]);
+    _distance[0] = wh0 - posRight;
+    _distance[1] = wh0 + posRight;
+    _distance[2] = wh1 + posUp;
+    _distance[3] = wh1 - posUp;
 
     for (int i = 0; i < 4; ++i) {
       _coefficients[i][0] = _normal[i]._vector[0];
@@ -1445,13 +1618,27 @@ public class Graph {
     if (!areBoundaryEquationsEnabled())
       throw new RuntimeException("The viewpoint boundary equations (needed by distanceToBoundary) may be outdated. Please "
           + "enable automatic updates of the equations in your PApplet.setup " + "with Scene.enableBoundaryEquations()");
-    Vector myVector = new Vector(_coefficients[index][0], _coefficients[index][1], _coefficients[index][2]);
+    return _distanceToBoundary(index, position);
+  }
+
+  /**
+   * Same as {@link #distanceToBoundary(int, Vector)} but without checking whether or not
+   * the boundary equations are enabled.
+   */
+  protected float _distanceToBoundary(int index, Vector position) {
+    return _distanceToBoundary(index, position._vector[0], position._vector[1], position._vector[2]);
+  }
+
+  /**
+   * Same as {@link #_distanceToBoundary(int, Vector)} but using the point coordinates.
+   */
+  protected float _distanceToBoundary(int index, float x, float y, float z) {
+    float[] coefficients = _coefficients[index];
     if (is3D())
-      return Vector.dot(position, myVector) - _coefficients[index][3];
+      return coefficients[0] * x + coefficients[1] * y + coefficients[2] * z - coefficients[3];
     else
-      return (_coefficients[index][0] * position.x() + _coefficients[index][1] * position.y() + _coefficients[index][2])
-          / (float) Math
-          .sqrt(_coefficients[index][0] * _coefficients[index][0] + _coefficients[index][1] * _coefficients[index][1]);
+      return (coefficients[0] * x + coefficients[1] * y + coefficients[2])
+          / (float) Math.sqrt(coefficients[0] * coefficients[0] + coefficients[1] * coefficients[1]);
   }
 
   /**
@@ -2364,17 +2551,26 @@ public class Graph {
    * represent the frame hierarchy: {@code leftArm} and {@code rightArm} are both
    * correctly drawn with respect to the {@code body} coordinate system.
    *
+   * <p>
+   * When the {@link #timingHandler()} runs a fixed timestep simulation, the frame is
+   * transformed according to its interpolated simulation state (see
+   * {@link Frame#interpolatedTranslation()}).
+   *
    * @see #applyWorldTransformation(Frame)
    */
   public void applyTransformation(Frame frame) {
+    Vector translation = frame.interpolatedTranslation();
+    Quaternion rotation = frame.interpolatedRotation();
+    float scaling = frame.interpolatedScaling();
     if (is2D()) {
-      matrixHandler().translate(frame.translation().x(), frame.translation().y());
-      matrixHandler().rotate(frame.rotation().angle2D());
-      matrixHandler().scale(frame.scaling(), frame.scaling());
+      matrixHandler().translate(translation.x(), translation.y());
+      matrixHandler().rotate(rotation.angle2D());
+      matrixHandler().scale(scaling, scaling);
     } else {
-      matrixHandler().translate(frame.translation()._vector[0], frame.translation()._vector[1], frame.translation()._vector[2]);
-      matrixHandler().rotate(frame.rotation().angle(), (frame.rotation()).axis()._vector[0], (frame.rotation()).axis()._vector[1], (frame.rotation()).axis()._vector[2]);
-      matrixHandler().scale(frame.scaling(), frame.scaling(), frame.scaling());
+      matrixHandler().translate(translation._vector[0], translation._vector[1], translation._vector[2]);
+      Vector axis = rotation.axis(_axis);
+      matrixHandler().rotate(rotation.angle(), axis._vector[0], axis._vector[1], axis._vector[2]);
+      matrixHandler().scale(scaling, scaling, scaling);
     }
   }
 
@@ -2626,11 +2822,64 @@ public class Graph {
    */
   public Frame track(String hid, float x, float y) {
     resetTrackedFrame(hid);
+    if (isTrackingIndexEnabled() && _trackingGrid != null) {
+      Frame frame = _trackingGrid.track(x, y);
+      if (frame != null)
+        setTrackedFrame(hid, frame);
+      return trackedFrame(hid);
+    }
     for (Frame frame : _leadingFrames())
       _track(hid, frame, x, y);
     return trackedFrame(hid);
   }
 
+  /**
+   * Disables the screen space tracking index.
+   *
+   * @see #enableTrackingIndex(boolean)
+   */
+  public void disableTrackingIndex() {
+    enableTrackingIndex(false);
+  }
+
+  /**
+   * Enables the screen space tracking index.
+   *
+   * @see #enableTrackingIndex(boolean)
+   */
+  public void enableTrackingIndex() {
+    enableTrackingIndex(true);
+  }
+
+  /**
+   * Enables or disables the screen space tracking index according to {@code flag}.
+   * Disabled by default.
+   * <p>
+   * When enabled, the frames projected during {@link #traverse()} are indexed into a
+   * {@link TrackingGrid}, against which all the pending {@link #cast(String, float, float)}
+   * requests are resolved at the end of the traversal. {@link #track(String, float, float)}
+   * queries are resolved against the index built by the last traversal, i.e., against the
+   * frames as they were last drawn, instead of projecting every frame again. Enable it when
+   * there are many trackable frames.
+   *
+   * @see #isTrackingIndexEnabled()
+   */
+  public void enableTrackingIndex(boolean flag) {
+    _trackingIndex = flag;
+    if (!flag)
+      _trackingGrid = null;
+  }
+
+  /**
+   * Returns {@code true} if the screen space tracking index is enabled and {@code false}
+   * otherwise.
+   *
+   * @see #enableTrackingIndex(boolean)
+   */
+  public boolean isTrackingIndexEnabled() {
+    return _trackingIndex;
+  }
+
   /**
    * Use internally by {@link #track(String, float, float)}.
    */
@@ -2669,7 +2918,7 @@ public class Graph {
    * @see Frame#setPrecision(Frame.Precision)
    */
   public boolean tracks(float x, float y, Frame frame) {
-    return _tracks(x, y, screenLocation(frame.position()), frame);
+    return _tracks(x, y, _projection(frame), frame);
   }
 
   /**
@@ -2680,11 +2929,21 @@ public class Graph {
       return false;
     if (!frame.isTrackingEnabled())
       return false;
-    float threshold = frame.precision() == Frame.Precision.ADAPTIVE ? frame.precisionThreshold() * frame.scaling() * pixelToGraphRatio(frame.position()) / 2
-        : frame.precisionThreshold() / 2;
+    float threshold = _trackingThreshold(frame);
     return ((Math.abs(x - projection._vector[0]) < threshold) && (Math.abs(y - projection._vector[1]) < threshold));
   }
 
+  /**
+   * Returns half the size (in pixels) of the screen square, centered at the frame
+   * projection, within which the {@code frame} is picked.
+   *
+   * @see Frame#precision()
+   */
+  protected float _trackingThreshold(Frame frame) {
+    return frame.precision() == Frame.Precision.ADAPTIVE ? frame.precisionThreshold() * frame.scaling() * pixelToGraphRatio(frame._position()) / 2
+        : frame.precisionThreshold() / 2;
+  }
+
   /**
    * Same as {@code cast(null, new Point(x, y))}.
    *
@@ -2751,18 +3010,314 @@ public class Graph {
    * @see #pruneBranch(Frame)
    */
   public void traverse() {
+    long start = System.nanoTime();
+    if (isTransformUpdateEnabled())
+      updateTransforms();
+    if (isFrustumCullingEnabled())
+      for (Frame frame : _leadingFrames())
+        frame._updateBounds();
+    boolean tracking = _isTrackingPass();
+    if (tracking && isTrackingIndexEnabled()) {
+      if (_trackingGrid == null)
+        _trackingGrid = new TrackingGrid(this);
+      _trackingGrid.clear(width(), height());
+    }
     for (Frame frame : _leadingFrames())
       _visit(frame);
+    if (!tracking)
+      return;
+    if (isTrackingIndexEnabled())
+      for (Tuple tuple : _tuples) {
+        resetTrackedFrame(tuple._hid);
+        Frame frame = _trackingGrid.track(tuple._pixel.x(), tuple._pixel.y());
+        if (frame != null)
+          setTrackedFrame(tuple._hid, frame);
+      }
     _tuples.clear();
+    timingHandler().profile(TimingHandler.Phase.TRAVERSE, start);
+  }
+
+  /**
+   * Used by {@link #traverse()}. Returns {@code true} if the current traversal should track
+   * the frames (see {@link #cast(String, Point)}), build the tracking index (see
+   * {@link #enableTrackingIndex(boolean)}) and be profiled. Default implementation
+   * always returns {@code true}. Override it when the same frame hierarchy gets traversed
+   * several times per frame, e.g., to render it into auxiliary buffers.
+   */
+  protected boolean _isTrackingPass() {
+    return true;
+  }
+
+  /**
+   * Disables automatic frustum culling during {@link #traverse()}.
+   *
+   * @see #enableFrustumCulling(boolean)
+   */
+  public void disableFrustumCulling() {
+    enableFrustumCulling(false);
+  }
+
+  /**
+   * Enables automatic frustum culling during {@link #traverse()}.
+   *
+   * @see #enableFrustumCulling(boolean)
+   */
+  public void enableFrustumCulling() {
+    enableFrustumCulling(true);
+  }
+
+  /**
+   * Enables or disables automatic frustum culling during {@link #traverse()} according to
+   * {@code flag}. Disabled by default.
+   * <p>
+   * When enabled, the bounding volumes of the frames (see
+   * {@link Frame#setBoundingBall(Vector, float)} and
+   * {@link Frame#setBoundingBox(Vector, Vector)}) are aggregated up the hierarchy into
+   * world balls, which are tested against the eye boundary planes, so that whole branches
+   * lying outside the boundary are skipped (i.e., neither visited nor tracked). Planes
+   * fully containing a branch ball aren't tested again for its descendants, and the plane
+   * that rejected a frame the last time is tested first. Frames without a bounding volume
+   * are regarded as empty, and branches without any bounding volume are never culled.
+   * <p>
+   * Enabling frustum culling also enables the boundary equations
+   * (see {@link #enableBoundaryEquations()}).
+   *
+   * @see #isFrustumCullingEnabled()
+   * @see Frame#cull(boolean)
+   */
+  public void enableFrustumCulling(boolean flag) {
+    if (flag && !areBoundaryEquationsEnabled()) {
+      enableBoundaryEquations();
+      // forces the equations update at the next preDraw()
+      _eqVersion = -1;
+    }
+    _frustumCulling = flag;
+  }
+
+  /**
+   * Returns {@code true} if automatic frustum culling is enabled and {@code false}
+   * otherwise.
+   *
+   * @see #enableFrustumCulling(boolean)
+   */
+  public boolean isFrustumCullingEnabled() {
+    return _frustumCulling;
+  }
+
+  /**
+   * Used by the traversal algorithm. Returns {@code true} if the {@code frame} branch lies
+   * outside the eye boundary and hence should be skipped. Always returns {@code false} if
+   * frustum culling is disabled.
+   * <p>
+   * The planes fully containing the branch are recorded in the frame culling mask so that
+   * they aren't tested for its children.
+   *
+   * @see #enableFrustumCulling(boolean)
+   */
+  protected boolean _isFrustumCulled(Frame frame) {
+    if (!_frustumCulling)
+      return false;
+    Frame reference = frame.reference();
+    int mask = reference == null ? 0 : reference._cullingMask;
+    frame._cullingMask = mask;
+    // frames modified during the traversal (e.g., within visit()) have outdated bounds
+    if (!frame._areBoundsValid() || frame._boundsRadius < 0)
+      return false;
+    int planes = is3D() ? 6 : 4;
+    int last = frame._rejectingPlane;
+    if (last >= 0 && last < planes && (mask & (1 << last)) == 0) {
+      if (_distanceToBoundary(last, frame._boundsCenter) > _boundsRadius(frame, last))
+        return true;
+    } else
+      last = -1;
+    for (int i = 0; i < planes; ++i) {
+      if (i == last || (mask & (1 << i)) != 0)
+        continue;
+      float distance = _distanceToBoundary(i, frame._boundsCenter);
+      float radius = _boundsRadius(frame, i);
+      if (distance > radius) {
+        frame._rejectingPlane = i;
+        return true;
+      }
+      if (-distance >= radius)
+        mask |= 1 << i;
+    }
+    if (last >= 0 && -_distanceToBoundary(last, frame._boundsCenter) >= _boundsRadius(frame, last))
+      mask |= 1 << last;
+    frame._cullingMask = mask;
+    return false;
+  }
+
+  /**
+   * Used by {@link #_isFrustumCulled(Frame)}. Returns the frame bounds radius along the
+   * normal of the boundary plane {@code index}. It's tighter than the bounds ball radius
+   * for leaf frames having a bounding box.
+   */
+  protected float _boundsRadius(Frame frame, int index) {
+    if (frame._boundingExtent == null || !frame.children().isEmpty())
+      return frame._boundsRadius;
+    float[] coefficients = _coefficients[index];
+    if (is3D())
+      _cullingNormal.set(coefficients[0], coefficients[1], coefficients[2]);
+    else {
+      float norm = (float) Math.sqrt(coefficients[0] * coefficients[0] + coefficients[1] * coefficients[1]);
+      _cullingNormal.set(coefficients[0] / norm, coefficients[1] / norm, 0);
+    }
+    frame._validateWorldCache();
+    frame._worldOrientation.inverseRotate(_cullingNormal, _cullingNormal);
+    Vector extent = frame._boundingExtent;
+    return frame._worldMagnitude * (Math.abs(_cullingNormal._vector[0]) * extent._vector[0]
+        + Math.abs(_cullingNormal._vector[1]) * extent._vector[1]
+        + Math.abs(_cullingNormal._vector[2]) * extent._vector[2]);
+  }
+
+  /**
+   * Disables the automatic {@link #updateTransforms()} call at the beginning of
+   * {@link #traverse()}.
+   *
+   * @see #enableTransformUpdate(boolean)
+   */
+  public void disableTransformUpdate() {
+    enableTransformUpdate(false);
+  }
+
+  /**
+   * Enables the automatic {@link #updateTransforms()} call at the beginning of
+   * {@link #traverse()}.
+   *
+   * @see #enableTransformUpdate(boolean)
+   */
+  public void enableTransformUpdate() {
+    enableTransformUpdate(true);
+  }
+
+  /**
+   * Enables or disables the automatic {@link #updateTransforms()} call at the beginning of
+   * {@link #traverse()} according to {@code flag}. Disabled by default.
+   * <p>
+   * Enable it when the {@link Frame#visit()} implementations query the world transformation
+   * of the frames (e.g., {@link Frame#position()} or {@link Frame#worldMatrix()}) in scenes
+   * having many animated frames.
+   *
+   * @see #isTransformUpdateEnabled()
+   */
+  public void enableTransformUpdate(boolean flag) {
+    _transformUpdate = flag;
+  }
+
+  /**
+   * Returns {@code true} if {@link #traverse()} calls {@link #updateTransforms()} before
+   * visiting the frames, and {@code false} otherwise.
+   *
+   * @see #enableTransformUpdate(boolean)
+   */
+  public boolean isTransformUpdateEnabled() {
+    return _transformUpdate;
+  }
+
+  /**
+   * Updates the world transformation (i.e., {@link Frame#position()},
+   * {@link Frame#orientation()}, {@link Frame#magnitude()} and {@link Frame#worldMatrix()})
+   * of all the reachable frames, so that querying them later (e.g., from
+   * {@link Frame#visit()}) is just a cache lookup.
+   * <p>
+   * Only frames modified since their last update (or whose ancestors were modified) are
+   * recomputed. When the graph has more than {@link #PARALLEL_THRESHOLD} frames, sibling
+   * subtrees are updated in parallel using the common fork/join pool.
+   *
+   * <b>Attention:</b> frames should not be modified while this method is running.
+   *
+   * @see #enableTransformUpdate(boolean)
+   * @see #traverse()
+   */
+  public void updateTransforms() {
+    List<Frame> leadingFrames = _leadingFrames();
+    if (leadingFrames.isEmpty())
+      return;
+    if (_count(leadingFrames, PARALLEL_THRESHOLD) < PARALLEL_THRESHOLD)
+      new TransformTask(leadingFrames, 0, leadingFrames.size(), false).compute();
+    else
+      ForkJoinPool.commonPool().invoke(new TransformTask(leadingFrames, 0, leadingFrames.size(), true));
+  }
+
+  /**
+   * Used by {@link #updateTransforms()}. Returns the number of frames in the {@code frames}
+   * branches, counting up to {@code limit}.
+   */
+  protected int _count(List<Frame> frames, int limit) {
+    int count = 0;
+    for (Frame frame : frames) {
+      count++;
+      if (count >= limit)
+        return count;
+      count += _count(frame.children(), limit - count);
+      if (count >= limit)
+        return count;
+    }
+    return count;
+  }
+
+  /**
+   * Used by {@link #updateTransforms()}. Updates the world transformation of the frames in
+   * the {@code [from, to)} range of a sibling list, and then that of their descendants.
+   * Sibling ranges are split among the fork/join workers while there are idle ones. A frame
+   * world cache is fully computed by the task owning the frame before its children are
+   * visited, so that the tasks only read the caches of the frame ancestors.
+   */
+  protected static class TransformTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    protected List<Frame> _frames;
+    protected int _from, _to;
+    protected boolean _parallel;
+
+    protected TransformTask(List<Frame> frames, int from, int to, boolean parallel) {
+      _frames = frames;
+      _from = from;
+      _to = to;
+      _parallel = parallel;
+    }
+
+    @Override
+    protected void compute() {
+      if (_parallel && _to - _from > 1 && getSurplusQueuedTaskCount() < 3) {
+        int middle = (_from + _to) >>> 1;
+        invokeAll(new TransformTask(_frames, _from, middle, true), new TransformTask(_frames, middle, _to, true));
+        return;
+      }
+      for (int i = _from; i < _to; i++) {
+        Frame frame = _frames.get(i);
+        frame._updateWorldTransform();
+        // memoize the frame world version before its children tasks (which may run on other
+        // workers) read it, so that workers only write the frames they own
+        frame._worldVersion();
+        List<Frame> children = frame.children();
+        if (!children.isEmpty())
+          new TransformTask(children, 0, children.size(), _parallel).compute();
+      }
+    }
+  }
+
+  /**
+   * Internal use. Returns the generation stamp of the {@code frame} branch, which changes
+   * every time the frame or any of its descendants is modified, or when the branch
+   * structure changes. Since it doesn't depend on the frame ancestors, it tells whether
+   * or not the branch drawing (relative to the frame reference) could have changed.
+   */
+  protected static long _branchVersion(Frame frame) {
+    return frame._branchVersion;
   }
 
   /**
    * Used by the traversal algorithm.
    */
   protected void _visit(Frame frame) {
+    if (_isFrustumCulled(frame))
+      return;
     pushModelView();
     applyTransformation(frame);
-    _track(frame);
+    if (_isTrackingPass())
+      _track(frame);
     frame.visit();
     if (!frame.isCulled())
       for (Frame child : frame.children())
@@ -2770,12 +3325,31 @@ public class Graph {
     popModelView();
   }
 
+  /**
+   * Used by {@link #_track(Frame)} and {@link #tracks(float, float, Frame)}. Returns the
+   * screen projection of the {@code frame} position, or the zero vector if it can't be
+   * projected. The returned vector is overwritten by the next call.
+   */
+  protected Vector _projection(Frame frame) {
+    Vector position = frame._position();
+    if (!_screenLocation(position._vector[0], position._vector[1], position._vector[2], _projection._vector))
+      _projection.reset();
+    return _projection;
+  }
+
   /**
    * Internally used by {@link #_visit(Frame)}.
    */
   protected void _track(Frame frame) {
+    if (isTrackingIndexEnabled()) {
+      if (!isEye(frame) && frame.isTrackingEnabled()) {
+        Vector projection = _projection(frame);
+        _trackingGrid.add(frame, projection._vector[0], projection._vector[1], _trackingThreshold(frame));
+      }
+      return;
+    }
     if (!_tuples.isEmpty()) {
-      Vector projection = screenLocation(frame.position());
+      Vector projection = _projection(frame);
       Iterator<Tuple> it = _tuples.iterator();
       while (it.hasNext()) {
         Tuple tuple = it.next();
@@ -3042,63 +3616,28 @@ public class Graph {
    * @see #location(Vector)
    */
   public Vector screenLocation(Vector vector, Frame frame) {
-    float xyz[] = new float[3];
-
-    if (frame != null) {
-      Vector tmp = frame.worldLocation(vector);
-      _screenLocation(tmp._vector[0], tmp._vector[1], tmp._vector[2], xyz);
-    } else
-      _screenLocation(vector._vector[0], vector._vector[1], vector._vector[2], xyz);
-
-    return new Vector(xyz[0], xyz[1], xyz[2]);
+    Vector result = frame != null ? frame.worldLocation(vector) : vector.get();
+    if (!_screenLocation(result._vector[0], result._vector[1], result._vector[2], result._vector))
+      result.reset();
+    return result;
   }
 
   // cached version
   protected boolean _screenLocation(float objx, float objy, float objz, float[] windowCoordinate) {
-    Matrix projectionViewMatrix = matrixHandler().cacheProjectionView();
-
-    float in[] = new float[4];
-    float out[] = new float[4];
-
-    in[0] = objx;
-    in[1] = objy;
-    in[2] = objz;
-    in[3] = 1.0f;
-
-    out[0] = projectionViewMatrix._matrix[0] * in[0] + projectionViewMatrix._matrix[4] * in[1] + projectionViewMatrix._matrix[8] * in[2]
-        + projectionViewMatrix._matrix[12] * in[3];
-    out[1] = projectionViewMatrix._matrix[1] * in[0] + projectionViewMatrix._matrix[5] * in[1] + projectionViewMatrix._matrix[9] * in[2]
-        + projectionViewMatrix._matrix[13] * in[3];
-    out[2] = projectionViewMatrix._matrix[2] * in[0] + projectionViewMatrix._matrix[6] * in[1] + projectionViewMatrix._matrix[10] * in[2]
-        + projectionViewMatrix._matrix[14] * in[3];
-    out[3] = projectionViewMatrix._matrix[3] * in[0] + projectionViewMatrix._matrix[7] * in[1] + projectionViewMatrix._matrix[11] * in[2]
-        + projectionViewMatrix._matrix[15] * in[3];
-
-    if (out[3] == 0.0)
-      return false;
+    float[] projectionView = matrixHandler().cacheProjectionView()._matrix;
 
-    int[] viewport = new int[4];
-    viewport[0] = 0;
-    viewport[1] = height();
-    viewport[2] = width();
-    viewport[3] = -height();
+    float x = projectionView[0] * objx + projectionView[4] * objy + projectionView[8] * objz + projectionView[12];
+    float y = projectionView[1] * objx + projectionView[5] * objy + projectionView[9] * objz + projectionView[13];
+    float z = projectionView[2] * objx + projectionView[6] * objy + projectionView[10] * objz + projectionView[14];
+    float w = projectionView[3] * objx + projectionView[7] * objy + projectionView[11] * objz + projectionView[15];
 
-    out[0] /= out[3];
-    out[1] /= out[3];
-    out[2] /= out[3];
-
-    // Map x, y and z to range 0-1
-    out[0] = out[0] * 0.5f + 0.5f;
-    out[1] = out[1] * 0.5f + 0.5f;
-    out[2] = out[2] * 0.5f + 0.5f;
-
-    // Map x,y to viewport
-    out[0] = out[0] * viewport[2] + viewport[0];
-    out[1] = out[1] * viewport[3] + viewport[1];
+    if (w == 0.0)
+      return false;
 
-    windowCoordinate[0] = out[0];
-    windowCoordinate[1] = out[1];
-    windowCoordinate[2] = out[2];
+    // Map x, y and z to range 0-1 and then x,y to viewport (0, height(), width(), -height())
+    windowCoordinate[0] = (x / w * 0.5f + 0.5f) * width();
+    windowCoordinate[1] = (y / w * 0.5f + 0.5f) * -height() + height();
+    windowCoordinate[2] = z / w * 0.5f + 0.5f;
 
     return true;
   }
@@ -3142,12 +3681,9 @@ public class Graph {
    * @see #setHeight(int)
    */
   public Vector location(Vector pixel, Frame frame) {
-    float xyz[] = new float[3];
-    _location(pixel._vector[0], pixel._vector[1], pixel._vector[2], xyz);
-    if (frame != null)
-      return frame.location(new Vector(xyz[0], xyz[1], xyz[2]));
-    else
-      return new Vector(xyz[0], xyz[1], xyz[2]);
+    Vector result = new Vector();
+    _location(pixel._vector[0], pixel._vector[1], pixel._vector[2], result._vector);
+    return frame != null ? frame.location(result) : result;
   }
 
   /**
@@ -3167,42 +3703,188 @@ public class Graph {
       projectionViewInverseMatrix.invert();
     }
 
-    int[] viewport = new int[4];
-    viewport[0] = 0;
-    viewport[1] = height();
-    viewport[2] = width();
-    viewport[3] = -height();
+    float[] projectionViewInverse = projectionViewInverseMatrix._matrix;
 
-    float in[] = new float[4];
-    float out[] = new float[4];
+    // Map x and y from window coordinates (viewport is 0, height(), width(), -height())
+    // and then x, y and z to range -1 to 1
+    float x = winx / width() * 2 - 1;
+    float y = (winy - height()) / -height() * 2 - 1;
+    float z = winz * 2 - 1;
 
-    in[0] = winx;
-    in[1] = winy;
-    in[2] = winz;
-    in[3] = 1.0f;
+    float w = projectionViewInverse[3] * x + projectionViewInverse[7] * y + projectionViewInverse[11] * z + projectionViewInverse[15];
+    if (w == 0)
+      return false;
 
-    /* Map x and y from window coordinates */
-    in[0] = (in[0] - viewport[0]) / viewport[2];
-    in[1] = (in[1] - viewport[1]) / viewport[3];
+    objCoordinate[0] = (projectionViewInverse[0] * x + projectionViewInverse[4] * y + projectionViewInverse[8] * z + projectionViewInverse[12]) / w;
+    objCoordinate[1] = (projectionViewInverse[1] * x + projectionViewInverse[5] * y + projectionViewInverse[9] * z + projectionViewInverse[13]) / w;
+    objCoordinate[2] = (projectionViewInverse[2] * x + projectionViewInverse[6] * y + projectionViewInverse[10] * z + projectionViewInverse[14]) / w;
 
-    /* Map to range -1 to 1 */
-    in[0] = in[0] * 2 - 1;
-    in[1] = in[1] * 2 - 1;
-    in[2] = in[2] * 2 - 1;
+    return true;
+  }
 
-    projectionViewInverseMatrix.multiply(in, out);
-    if (out[3] == 0)
-      return false;
+  /**
+   * Same as {@code screenLocations(source, target, count, null)}.
+   *
+   * @see #screenLocations(float[], float[], int, Frame)
+   */
+  public void screenLocations(float[] source, float[] target, int count) {
+    screenLocations(source, target, count, null);
+  }
 
-    out[0] /= out[3];
-    out[1] /= out[3];
-    out[2] /= out[3];
+  /**
+   * Batch version of {@link #screenLocation(Vector, Frame)}. Converts the first {@code count}
+   * locations packed as {@code x, y, z} triplets in {@code source} from {@code frame} (or
+   * the world when {@code frame} is {@code null}) to screen, storing them in the same layout
+   * into {@code target}, which may be {@code source}.
+   * <p>
+   * The cached projection times view matrix (see {@link MatrixHandler#cacheProjectionView()})
+   * is composed with the {@code frame} world matrix once for the whole batch, and no objects
+   * are allocated. Locations which cannot be projected are set to {@code (0,0,0)}. Batches
+   * larger than {@link #BATCH_PARALLEL_THRESHOLD} are split among the fork/join workers.
+   *
+   * @see #locations(float[], float[], int, Frame)
+   */
+  public void screenLocations(float[] source, float[] target, int count, Frame frame) {
+    if (frame == null)
+      _batchMatrix.set(matrixHandler().cacheProjectionView());
+    else {
+      frame._updateWorldTransform();
+      Matrix.multiply(matrixHandler().cacheProjectionView(), frame._worldMatrix, _batchMatrix);
+    }
+    _batch(_batchMatrix._matrix, source, target, count, false);
+  }
 
-    objCoordinate[0] = out[0];
-    objCoordinate[1] = out[1];
-    objCoordinate[2] = out[2];
+  /**
+   * Same as {@code locations(source, target, count, null)}.
+   *
+   * @see #locations(float[], float[], int, Frame)
+   */
+  public void locations(float[] source, float[] target, int count) {
+    locations(source, target, count, null);
+  }
 
-    return true;
+  /**
+   * Batch version of {@link #location(Vector, Frame)}. Converts the first {@code count}
+   * pixels packed as {@code x, y, z} triplets in {@code source} to {@code frame} (or world
+   * when {@code frame} is {@code null}) coordinates, storing them in the same layout into
+   * {@code target}, which may be {@code source}.
+   * <p>
+   * The projection times view matrix (composed with the {@code frame} world matrix) is
+   * inverted once for the whole batch (the {@link MatrixHandler#cacheProjectionViewInverse()}
+   * is used when available and {@code frame} is {@code null}), and no objects are allocated.
+   * Pixels which cannot be unprojected are set to {@code (0,0,0)}. Batches larger than
+   * {@link #BATCH_PARALLEL_THRESHOLD} are split among the fork/join workers.
+   *
+   * @see #screenLocations(float[], float[], int, Frame)
+   */
+  public void locations(float[] source, float[] target, int count, Frame frame) {
+    Matrix inverse = _batchInverse;
+    if (frame == null) {
+      if (matrixHandler().isProjectionViewInverseCached())
+        inverse = matrixHandler().cacheProjectionViewInverse();
+      else
+        matrixHandler().cacheProjectionView().invert(inverse);
+    } else {
+      frame._updateWorldTransform();
+      Matrix.multiply(matrixHandler().cacheProjectionView(), frame._worldMatrix, _batchMatrix);
+      _batchMatrix.invert(inverse);
+    }
+    _batch(inverse._matrix, source, target, count, true);
+  }
+
+  /**
+   * Used by {@link #screenLocations(float[], float[], int, Frame)} and
+   * {@link #locations(float[], float[], int, Frame)}.
+   */
+  protected void _batch(float[] matrix, float[] source, float[] target, int count, boolean inverse) {
+    if (count > BATCH_PARALLEL_THRESHOLD)
+      ForkJoinPool.commonPool().invoke(new BatchTask(matrix, width(), height(), source, target, 0, count, inverse));
+    else if (inverse)
+      _locations(matrix, width(), height(), source, target, 0, count);
+    else
+      _screenLocations(matrix, width(), height(), source, target, 0, count);
+  }
+
+  /**
+   * Batch version of {@link #_screenLocation(float, float, float, float[])} which projects
+   * the {@code [from, to)} triplets range using the given {@code projectionView} matrix.
+   */
+  protected static void _screenLocations(float[] projectionView, float width, float height, float[] source, float[] target, int from, int to) {
+    for (int i = 3 * from; i < 3 * to; i += 3) {
+      float objx = source[i], objy = source[i + 1], objz = source[i + 2];
+      float w = projectionView[3] * objx + projectionView[7] * objy + projectionView[11] * objz + projectionView[15];
+      if (w == 0) {
+        target[i] = target[i + 1] = target[i + 2] = 0;
+        continue;
+      }
+      float x = projectionView[0] * objx + projectionView[4] * objy + projectionView[8] * objz + projectionView[12];
+      float y = projectionView[1] * objx + projectionView[5] * objy + projectionView[9] * objz + projectionView[13];
+      float z = projectionView[2] * objx + projectionView[6] * objy + projectionView[10] * objz + projectionView[14];
+      // Map x, y and z to range 0-1 and then x,y to viewport (0, height(), width(), -height())
+      target[i] = (x / w * 0.5f + 0.5f) * width;
+      target[i + 1] = (y / w * 0.5f + 0.5f) * -height + height;
+      target[i + 2] = z / w * 0.5f + 0.5f;
+    }
+  }
+
+  /**
+   * Batch version of {@link #_location(float, float, float, float[])} which unprojects
+   * the {@code [from, to)} triplets range using the given {@code projectionViewInverse} matrix.
+   */
+  protected static void _locations(float[] projectionViewInverse, float width, float height, float[] source, float[] target, int from, int to) {
+    for (int i = 3 * from; i < 3 * to; i += 3) {
+      // Map x and y from window coordinates (viewport is 0, height(), width(), -height())
+      // and then x, y and z to range -1 to 1
+      float x = source[i] / width * 2 - 1;
+      float y = (source[i + 1] - height) / -height * 2 - 1;
+      float z = source[i + 2] * 2 - 1;
+      float w = projectionViewInverse[3] * x + projectionViewInverse[7] * y + projectionViewInverse[11] * z + projectionViewInverse[15];
+      if (w == 0) {
+        target[i] = target[i + 1] = target[i + 2] = 0;
+        continue;
+      }
+      target[i] = (projectionViewInverse[0] * x + projectionViewInverse[4] * y + projectionViewInverse[8] * z + projectionViewInverse[12]) / w;
+      target[i + 1] = (projectionViewInverse[1] * x + projectionViewInverse[5] * y + projectionViewInverse[9] * z + projectionViewInverse[13]) / w;
+      target[i + 2] = (projectionViewInverse[2] * x + projectionViewInverse[6] * y + projectionViewInverse[10] * z + projectionViewInverse[14]) / w;
+    }
+  }
+
+  /**
+   * Used by {@link #_batch(float[], float[], float[], int, boolean)}. Splits the batch among
+   * the fork/join workers while there are idle ones.
+   */
+  protected static class BatchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    protected float[] _matrix, _source, _target;
+    protected float _width, _height;
+    protected int _from, _to;
+    protected boolean _inverse;
+
+    protected BatchTask(float[] matrix, float width, float height, float[] source, float[] target, int from, int to, boolean inverse) {
+      _matrix = matrix;
+      _width = width;
+      _height = height;
+      _source = source;
+      _target = target;
+      _from = from;
+      _to = to;
+      _inverse = inverse;
+    }
+
+    @Override
+    protected void compute() {
+      if (_to - _from > BATCH_PARALLEL_THRESHOLD / 4 && getSurplusQueuedTaskCount() < 3) {
+        int middle = (_from + _to) >>> 1;
+        invokeAll(new BatchTask(_matrix, _width, _height, _source, _target, _from, middle, _inverse),
+            new BatchTask(_matrix, _width, _height, _source, _target, middle, _to, _inverse));
+        return;
+      }
+      if (_inverse)
+        _locations(_matrix, _width, _height, _source, _target, _from, _to);
+      else
+        _screenLocations(_matrix, _width, _height, _source, _target, _from, _to);
+    }
   }
 
   // Gesture physical interface is quite nice!
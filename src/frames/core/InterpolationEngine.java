@@ -0,0 +1,277 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.core;
+
+import frames.timing.TimingTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An interpolation engine drives a (possibly very large) set of {@link Interpolator}s
+ * with a single {@link TimingTask}, instead of having each of them registering its own.
+ * <p>
+ * Every {@link #period()} milliseconds the engine gathers the {@link Interpolator#started()}
+ * interpolators added to it (see {@link #add(Interpolator)}), evaluates them in a single
+ * pass over their packed key frame arrays, without allocating {@link frames.primitives.Vector}s
+ * nor {@link frames.primitives.Quaternion}s, and then writes the results directly into the
+ * interpolator {@link Interpolator#frame()}s. The evaluation pass is split among the
+ * fork/join workers when {@link #isParallelEvaluationEnabled()} and there are more than
+ * {@link #PARALLEL_THRESHOLD} active interpolators. Results are always written to the
+ * frames from the thread running the engine task.
+ * <p>
+ * Interpolators driven by an engine advance their {@link Interpolator#time()} by the engine
+ * {@link #period()} (multiplied by their {@link Interpolator#speed()}) at each update, i.e.,
+ * their own {@link Interpolator#period()} is ignored. Otherwise they behave as usual:
+ * they're started and stopped with {@link Interpolator#start()} and
+ * {@link Interpolator#stop()}, and honor their {@link Interpolator#loop()} and
+ * {@link Interpolator#constantSpeed()} settings.
+ * <p>
+ * Here is a typical usage example:
+ * <pre>
+ * {@code
+ * InterpolationEngine engine = new InterpolationEngine(graph);
+ * for (Interpolator interpolator : crowd) {
+ *   engine.add(interpolator);
+ *   interpolator.start();
+ * }
+ * }
+ * </pre>
+ *
+ * @see Interpolator#engine()
+ */
+public class InterpolationEngine {
+  /**
+   * Minimum number of active interpolators for the evaluation pass to be parallelized.
+   */
+  public static int PARALLEL_THRESHOLD = 256;
+
+  protected Graph _graph;
+  protected TimingTask _task;
+  protected int _period;
+  protected boolean _parallel;
+  protected List<Interpolator> _interpolators;
+
+  // interpolators evaluated by the current pass, together with their key frame times
+  protected Interpolator[] _active;
+  protected float[] _times;
+  protected int _size;
+  // evaluation results, packed as Interpolator.SAMPLE_STRIDE floats per active interpolator
+  protected float[] _results;
+  protected float[] _scratch;
+
+  /**
+   * Creates an engine for the interpolators of the given {@code graph} running every
+   * 40 milliseconds.
+   */
+  public InterpolationEngine(Graph graph) {
+    if (graph == null)
+      throw new RuntimeException("Warning: no interpolation engine instantiated");
+    _graph = graph;
+    _period = 40;
+    _parallel = true;
+    _interpolators = new ArrayList<Interpolator>();
+    _active = new Interpolator[16];
+    _times = new float[16];
+    _results = new float[16 * Interpolator.SAMPLE_STRIDE];
+    _scratch = new float[Interpolator.SCRATCH_SIZE];
+    _task = new TimingTask() {
+      public void execute() {
+        _update();
+      }
+    };
+    _graph.registerTask(_task);
+  }
+
+  /**
+   * Returns the graph this engine belongs to.
+   */
+  public Graph graph() {
+    return _graph;
+  }
+
+  /**
+   * Adds the {@code interpolator} to the engine. If the interpolator is already
+   * {@link Interpolator#started()}, it's seamlessly taken over by the engine.
+   * <p>
+   * Note that an interpolator may belong to a single engine at a time.
+   *
+   * @see #remove(Interpolator)
+   */
+  public void add(Interpolator interpolator) {
+    if (interpolator == null || interpolator._engine == this)
+      return;
+    if (interpolator.graph() != graph())
+      throw new RuntimeException("Interpolator and InterpolationEngine graphs should match");
+    if (interpolator._engine != null)
+      interpolator._engine.remove(interpolator);
+    interpolator._task.stop();
+    interpolator._engine = this;
+    _interpolators.add(interpolator);
+    if (!_task.isActive())
+      _task.run(_period);
+  }
+
+  /**
+   * Removes the {@code interpolator} from the engine. If the interpolator is
+   * {@link Interpolator#started()}, it goes on running with its own timer.
+   *
+   * @see #add(Interpolator)
+   */
+  public void remove(Interpolator interpolator) {
+    if (interpolator == null || interpolator._engine != this)
+      return;
+    _interpolators.remove(interpolator);
+    interpolator._engine = null;
+    if (interpolator.started() && interpolator.size() > 1)
+      interpolator._task.run(interpolator.period());
+    if (_interpolators.isEmpty())
+      _task.stop();
+  }
+
+  /**
+   * Returns the list of interpolators added to the engine. Don't modify it directly, use
+   * {@link #add(Interpolator)} and {@link #remove(Interpolator)} instead.
+   */
+  public List<Interpolator> interpolators() {
+    return _interpolators;
+  }
+
+  /**
+   * Returns the engine update period, expressed in milliseconds. Default value is 40
+   * milliseconds.
+   *
+   * @see #setPeriod(int)
+   */
+  public int period() {
+    return _period;
+  }
+
+  /**
+   * Sets the engine {@link #period()}. Should be positive.
+   */
+  public void setPeriod(int period) {
+    if (period <= 0)
+      return;
+    _period = period;
+    if (_task.isActive())
+      _task.run(_period);
+  }
+
+  /**
+   * Enables or disables the parallel evaluation of the interpolators according to
+   * {@code enable}.
+   *
+   * @see #isParallelEvaluationEnabled()
+   */
+  public void enableParallelEvaluation(boolean enable) {
+    _parallel = enable;
+  }
+
+  /**
+   * Enables the parallel evaluation of the interpolators.
+   *
+   * @see #isParallelEvaluationEnabled()
+   */
+  public void enableParallelEvaluation() {
+    enableParallelEvaluation(true);
+  }
+
+  /**
+   * Disables the parallel evaluation of the interpolators.
+   *
+   * @see #isParallelEvaluationEnabled()
+   */
+  public void disableParallelEvaluation() {
+    enableParallelEvaluation(false);
+  }
+
+  /**
+   * Returns {@code true} if the evaluation pass is split among the fork/join workers when
+   * there are more than {@link #PARALLEL_THRESHOLD} active interpolators, and {@code false}
+   * otherwise. Default is {@code true}.
+   */
+  public boolean isParallelEvaluationEnabled() {
+    return _parallel;
+  }
+
+  /**
+   * Updates all the started interpolators added to the engine. Called by the engine
+   * timer every {@link #period()} milliseconds.
+   * <p>
+   * The interpolator key frames are first validated and packed (sequentially), then
+   * evaluated (possibly in parallel) and finally written into the interpolator frames
+   * (sequentially).
+   */
+  protected void _update() {
+    _size = 0;
+    for (Interpolator interpolator : _interpolators)
+      if (interpolator.started() && interpolator.size() > 1 && interpolator.frame() != null) {
+        if (_size == _active.length) {
+          _active = Arrays.copyOf(_active, 2 * _size);
+          _times = Arrays.copyOf(_times, 2 * _size);
+          _results = Arrays.copyOf(_results, 2 * _size * Interpolator.SAMPLE_STRIDE);
+        }
+        _active[_size] = interpolator;
+        _times[_size] = interpolator._prepare(interpolator.time());
+        _size++;
+      }
+    if (_parallel && _size > PARALLEL_THRESHOLD)
+      ForkJoinPool.commonPool().invoke(new EvaluationTask(this, 0, _size));
+    else
+      _evaluate(0, _size, _scratch);
+    // stopped interpolators are cleared from _active so that they can be collected
+    for (int i = 0; i < _size; i++) {
+      _active[i]._apply(_results, i * Interpolator.SAMPLE_STRIDE);
+      _active[i]._advance(_period);
+      _active[i] = null;
+    }
+  }
+
+  /**
+   * Used by {@link #_update()}. Evaluates the active interpolators in the
+   * {@code [from, to)} range.
+   */
+  protected void _evaluate(int from, int to, float[] scratch) {
+    for (int i = from; i < to; i++)
+      _active[i]._evaluate(_times[i], _results, i * Interpolator.SAMPLE_STRIDE, scratch);
+  }
+
+  /**
+   * Used by {@link #_update()}. Splits the evaluation pass among the fork/join workers
+   * while there are idle ones.
+   */
+  protected static class EvaluationTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    protected InterpolationEngine _engine;
+    protected int _from, _to;
+
+    protected EvaluationTask(InterpolationEngine engine, int from, int to) {
+      _engine = engine;
+      _from = from;
+      _to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (_to - _from > PARALLEL_THRESHOLD / 2 && getSurplusQueuedTaskCount() < 3) {
+        int middle = (_from + _to) >>> 1;
+        invokeAll(new EvaluationTask(_engine, _from, middle), new EvaluationTask(_engine, middle, _to));
+        return;
+      }
+      _engine._evaluate(_from, _to, new float[Interpolator.SCRATCH_SIZE]);
+    }
+  }
+}
@@ -12,10 +12,10 @@ package frames.core;
 
 import frames.primitives.Quaternion;
 import frames.primitives.Vector;
-import frames.timing.TimingHandler;
 import frames.timing.TimingTask;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -81,6 +81,26 @@ import java.util.ListIterator;
  * there was no constraint) will probably be erroneous.
  */
 public class Interpolator {
+  /**
+   * Number of samples per segment used to build the arc-length table (see
+   * {@link #setConstantSpeed(boolean)}).
+   */
+  public static int ARC_LENGTH_SAMPLES = 16;
+  /**
+   * Maximum number of path samples per segment (see {@link #pathSamples()}).
+   */
+  public static int MAX_PATH_STEPS = 30;
+  /**
+   * Number of floats per sample in the {@link #pathSamples()} buffer: position (3),
+   * orientation (4) and magnitude (1).
+   */
+  public static final int SAMPLE_STRIDE = 8;
+
+  // packed key frame layout: position (3), tangent vector (3), orientation (4),
+  // tangent quaternion (4) and magnitude (1)
+  protected static final int KEY_STRIDE = 15;
+  protected static final int SCRATCH_SIZE = 4;
+
   /**
    * Returns whether or not this interpolator matches other.
    *
@@ -112,6 +132,8 @@ public class Interpolator {
     protected Quaternion _tangentQuaternion;
     protected Vector _tangentVector;
     protected float _time;
+    // world version of the frame when the key frame was last checked
+    protected long _version;
     protected Frame _frame;
 
     KeyFrame(Frame frame, float time) {
@@ -157,18 +179,29 @@ public class Interpolator {
     }
 
     void computeTangent(KeyFrame prev, KeyFrame next) {
-      _tangentVector = Vector.multiply(Vector.subtract(next.position(), prev.position()), 0.5f);
+      _tangentVector = Vector.subtract(next.frame()._position(), prev.frame()._position(), _tangentVector);
+      _tangentVector.multiply(0.5f);
       _tangentQuaternion = Quaternion.squadTangent(prev.orientation(), orientation(), next.orientation());
     }
   }
 
-  protected long _lastUpdate;
+  // Frame._generation when the key frames were last checked
+  protected long _generation = -1;
+  // indices (in increasing order) of the key frames modified since the values were updated
+  protected int[] _dirty;
+  protected int _dirtySize;
   protected List<KeyFrame> _list;
-  protected ListIterator<KeyFrame> _current0;
-  protected ListIterator<KeyFrame> _current1;
-  protected ListIterator<KeyFrame> _current2;
-  protected ListIterator<KeyFrame> _current3;
+  // key frame times, kept in sync with _list for binary searching
+  protected float[] _times;
+  protected int _current1;
+  protected int _current2;
   protected List<Frame> _path;
+  protected boolean _pathFramesAreValid;
+  protected float[] _pathSamples;
+  protected int _pathSize;
+  // index of the first path sample of each segment
+  protected int[] _segmentStart;
+  protected float _pathTolerance;
 
   // Main frame
   protected Frame _frame;
@@ -182,6 +215,7 @@ public class Interpolator {
 
   // Misc
   protected boolean _loop;
+  protected boolean _constantSpeed;
 
   // Cached values and flags
   protected boolean _pathIsValid;
@@ -190,6 +224,19 @@ public class Interpolator {
   protected boolean _splineCacheIsValid;
   protected Vector _vector1, _vector2;
 
+  // Arc-length table: cumulative path length at each sample time
+  protected boolean _arcLengthIsValid;
+  protected float[] _distances;
+  protected float[] _sampleTimes;
+  protected int _samples;
+  protected Vector _sample;
+
+  // Engine and its packed key frames
+  protected InterpolationEngine _engine;
+  protected boolean _keysAreValid;
+  protected float[] _keys;
+  protected float[] _scratch;
+
   // Graph
   protected Graph _graph;
 
@@ -236,14 +283,13 @@ public class Interpolator {
     _speed = 1.0f;
     _started = false;
     _loop = false;
+    _pathTolerance = 0.01f;
     _pathIsValid = false;
     _valuesAreValid = true;
     _currentFrameValid = false;
 
-    _current0 = _list.listIterator();
-    _current1 = _list.listIterator();
-    _current2 = _list.listIterator();
-    _current3 = _list.listIterator();
+    _times = new float[16];
+    _dirty = new int[16];
 
     _task = new TimingTask() {
       public void execute() {
@@ -268,6 +314,8 @@ public class Interpolator {
     this._speed = other._speed;
     this._started = other._started;
     this._loop = other._loop;
+    this._constantSpeed = other._constantSpeed;
+    this._pathTolerance = other._pathTolerance;
     this._pathIsValid = other._pathIsValid;
     this._valuesAreValid = other._valuesAreValid;
     this._currentFrameValid = other._currentFrameValid;
@@ -279,10 +327,10 @@ public class Interpolator {
       this._list.add(kf);
     }
 
-    this._current0 = _list.listIterator(other._current0.nextIndex());
-    this._current1 = _list.listIterator(other._current1.nextIndex());
-    this._current2 = _list.listIterator(other._current2.nextIndex());
-    this._current3 = _list.listIterator(other._current3.nextIndex());
+    this._times = Arrays.copyOf(other._times, other._times.length);
+    this._dirty = new int[16];
+    this._current1 = other._current1;
+    this._current2 = other._current2;
 
     this._task = new TimingTask() {
       public void execute() {
@@ -308,21 +356,6 @@ public class Interpolator {
     return _graph;
   }
 
-  /**
-   * Internal use. Updates the last frame path was updated. Called by
-   * {@link #_checkValidity()}.
-   */
-  protected void _checked() {
-    _lastUpdate = TimingHandler.frameCount;
-  }
-
-  /**
-   * Internal use. Called by {@link #_checkValidity()}.
-   */
-  protected long _lastUpdate() {
-    return _lastUpdate;
-  }
-
   /**
    * Sets the interpolator {@link #frame()}. If frame {@link Frame#isDetached()},
    * the frame graph ({@link Frame#graph()}) and {@link #graph()} should match.
@@ -336,6 +369,16 @@ public class Interpolator {
     _frame = frame;
   }
 
+  /**
+   * Returns the engine driving this interpolator, or {@code null} if the interpolator is
+   * driven by its own timer.
+   *
+   * @see InterpolationEngine#add(Interpolator)
+   */
+  public InterpolationEngine engine() {
+    return _engine;
+  }
+
   /**
    * Returns the frame that is to be interpolated by the interpolator.
    * <p>
@@ -454,6 +497,61 @@ public class Interpolator {
     _loop = loop;
   }
 
+  /**
+   * Returns {@code true} when the interpolation is played at constant speed along the
+   * path, i.e., when the interpolated distance is proportional to the elapsed
+   * {@link #time()}, instead of interpolating uniformly in key frame time.
+   * <p>
+   * Default is {@code false}.
+   *
+   * @see #setConstantSpeed(boolean)
+   */
+  public boolean constantSpeed() {
+    return _constantSpeed;
+  }
+
+  /**
+   * Convenience function that simply calls {@code setConstantSpeed(true)}.
+   */
+  public void setConstantSpeed() {
+    setConstantSpeed(true);
+  }
+
+  /**
+   * Sets the {@link #constantSpeed()} value.
+   * <p>
+   * In constant speed mode the path still takes {@link #duration()} seconds to be
+   * traversed, but {@link #interpolate(float)} maps the {@link #time()} to the path
+   * distance {@code length() * (time - firstTime()) / duration()} and interpolates the
+   * key frames at the time they reach that distance (see {@link #timeAtDistance(float)}).
+   * Distances are looked up in an arc-length table which is only rebuilt when the key
+   * frames change.
+   */
+  public void setConstantSpeed(boolean constantSpeed) {
+    _constantSpeed = constantSpeed;
+  }
+
+  /**
+   * Returns the tolerance used to tessellate the path (see {@link #pathSamples()}), i.e.,
+   * the maximum distance between the path and its tessellation, relative to the distance
+   * between the key frames of each segment. Default value is 0.01.
+   *
+   * @see #setPathTolerance(float)
+   */
+  public float pathTolerance() {
+    return _pathTolerance;
+  }
+
+  /**
+   * Sets the {@link #pathTolerance()}. Should be positive.
+   */
+  public void setPathTolerance(float tolerance) {
+    if (tolerance <= 0)
+      return;
+    _pathTolerance = tolerance;
+    _pathIsValid = false;
+  }
+
   /**
    * Returns {@code true} when the interpolation is being performed. Use
    * {@link #start()} or {@link #stop()} to modify this state.
@@ -473,25 +571,30 @@ public class Interpolator {
    */
   protected void _update() {
     interpolate(time());
+    _advance(period());
+  }
 
-    _time += speed() * period() / 1000.0f;
+  /**
+   * Internal use. Adds {@code period}* {@link #speed()} to {@link #time()} and handles the
+   * path ends. Called by {@link #_update()} and by the {@link #engine()}.
+   */
+  protected void _advance(int period) {
+    _time += speed() * period / 1000.0f;
 
-    if (time() > _list.get(_list.size() - 1).time()) {
+    if (time() > lastTime()) {
       if (loop())
-        setTime(
-            _list.get(0).time() + _time - _list.get(_list.size() - 1).time());
+        setTime(firstTime() + _time - lastTime());
       else {
         // Make sure last KeyFrame is reached and displayed
-        interpolate(_list.get(_list.size() - 1).time());
+        interpolate(lastTime());
         stop();
       }
-    } else if (time() < _list.get(0).time()) {
+    } else if (time() < firstTime()) {
       if (loop())
-        setTime(
-            _list.get(_list.size() - 1).time() - _list.get(0).time() + _time);
+        setTime(lastTime() - firstTime() + _time);
       else {
         // Make sure first KeyFrame is reached and displayed
-        interpolate(_list.get(0).time());
+        interpolate(firstTime());
         stop();
       }
     }
@@ -521,7 +624,8 @@ public class Interpolator {
    * A timer is started with an {@link #period()} that updates the
    * {@link #frame()}'s position, orientation and magnitude.
    * {@link #started()} will return {@code true} until
-   * {@link #stop()} is called.
+   * {@link #stop()} is called. When the interpolator belongs to an {@link #engine()},
+   * the engine timer is used instead.
    * <p>
    * If {@code period} is positive, it is set as the new {@link #period()}.
    * The previous {@link #period()} is used otherwise (default).
@@ -544,11 +648,11 @@ public class Interpolator {
       setPeriod(period);
 
     if (!_list.isEmpty()) {
-      if ((speed() > 0.0) && (time() >= _list.get(_list.size() - 1).time()))
-        setTime(_list.get(0).time());
-      if ((speed() < 0.0) && (time() <= _list.get(0).time()))
-        setTime(_list.get(_list.size() - 1).time());
-      if (_list.size() > 1)
+      if ((speed() > 0.0) && (time() >= lastTime()))
+        setTime(firstTime());
+      if ((speed() < 0.0) && (time() <= firstTime()))
+        setTime(lastTime());
+      if (_list.size() > 1 && _engine == null)
         _task.run(period());
       _started = true;
       _update();
@@ -606,7 +710,7 @@ public class Interpolator {
     if (_list.isEmpty())
       time = 0.0f;
     else
-      time = _list.get(_list.size() - 1).time() + 1.0f;
+      time = lastTime() + 1.0f;
 
     addKeyFrame(frame, time);
   }
@@ -644,10 +748,14 @@ public class Interpolator {
     if (_list.isEmpty())
       _time = time;
 
-    if ((!_list.isEmpty()) && (_list.get(_list.size() - 1).time() > time))
+    if ((!_list.isEmpty()) && (lastTime() > time))
       System.out.println("Error in Interpolator.addKeyFrame: time is not monotone");
-    else
+    else {
+      if (_list.size() == _times.length)
+        _times = Arrays.copyOf(_times, 2 * _times.length);
+      _times[_list.size()] = time;
       _list.add(new KeyFrame(frame, time));
+    }
 
     _valuesAreValid = false;
     _pathIsValid = false;
@@ -669,6 +777,7 @@ public class Interpolator {
     if (started())
       stop();
     KeyFrame keyFrame = _list.remove(index);
+    System.arraycopy(_times, index + 1, _times, index, _list.size() - index);
     setTime(firstTime());
     return keyFrame.frame();
   }
@@ -713,23 +822,83 @@ public class Interpolator {
     _currentFrameValid = false;
   }
 
+  /**
+   * Internal use. Brings the key frame tangents (and their dependent caches) up to date,
+   * either fully (see {@link #_updateModifiedFrames()}) or, when only some key frames were
+   * modified, incrementally (see {@link #_updateDirtyFrames()}). The key frames shouldn't
+   * be empty.
+   */
+  protected void _updateValues() {
+    if (!_valuesAreValid)
+      _updateModifiedFrames();
+    else if (_dirtySize > 0)
+      _updateDirtyFrames();
+  }
+
+  /**
+   * Internal use. Recomputes all the key frame tangents and invalidates the path, the
+   * arc-length table and the packed key frames.
+   */
   protected void _updateModifiedFrames() {
-    KeyFrame kf;
-    KeyFrame prev = _list.get(0);
-    kf = _list.get(0);
-
-    int index = 1;
-    while (kf != null) {
-      KeyFrame next = (index < _list.size()) ? _list.get(index) : null;
-      index++;
-      if (next != null)
-        kf.computeTangent(prev, next);
-      else
-        kf.computeTangent(prev, kf);
-      prev = kf;
-      kf = next;
+    for (int index = 0; index < _list.size(); index++) {
+      _computeTangent(index);
+      _list.get(index)._version = _list.get(index).frame()._worldVersion();
     }
+    _generation = Frame._generation;
+    _dirtySize = 0;
     _valuesAreValid = true;
+    _pathIsValid = false;
+    _arcLengthIsValid = false;
+    _keysAreValid = false;
+    _splineCacheIsValid = false;
+  }
+
+  /**
+   * Internal use. Recomputes the tangents of the modified key frames and their two
+   * neighbours (which are the only ones depending on them), together with the packed key
+   * frames, the path samples and the arc-length table entries of the segments whose
+   * tangents changed. Falls back to {@link #_updateModifiedFrames()} when more than a
+   * quarter of the key frames were modified.
+   */
+  protected void _updateDirtyFrames() {
+    if (4 * _dirtySize > _list.size()) {
+      _updateModifiedFrames();
+      return;
+    }
+    Arrays.sort(_dirty, 0, _dirtySize);
+    int last = _list.size() - 1;
+    int tangent = -1;
+    for (int i = 0; i < _dirtySize; i++)
+      for (int index = Math.max(tangent + 1, _dirty[i] - 1); index <= Math.min(last, _dirty[i] + 1); index++) {
+        _computeTangent(index);
+        if (_keysAreValid)
+          _pack(index);
+        tangent = index;
+      }
+    // the segments starting at the key frames before and after a modified one change
+    for (int i = 0; i < _dirtySize; ) {
+      int from = Math.max(0, _dirty[i] - 2);
+      int to = Math.min(last - 1, _dirty[i] + 1);
+      for (i++; i < _dirtySize && _dirty[i] - 2 <= to + 1; i++)
+        to = Math.min(last - 1, _dirty[i] + 1);
+      if (from <= to) {
+        if (_pathIsValid)
+          _tessellate(from, to);
+        if (_arcLengthIsValid)
+          _remeasure(from, to);
+      }
+    }
+    _dirtySize = 0;
+    _splineCacheIsValid = false;
+  }
+
+  /**
+   * Internal use. Computes the tangent of the key frame at {@code index} from its
+   * neighbours.
+   */
+  protected void _computeTangent(int index) {
+    int last = _list.size() - 1;
+    _list.get(index).computeTangent(_list.get(Math.max(0, index - 1)), _list.get(Math.min(last, index + 1)));
   }
 
   /**
@@ -746,90 +915,187 @@ public class Interpolator {
    * Computes a path from {@link #keyFrames()} for the interpolator to be drawn.
    * <p>
    * Calls {@link #_updatePath()} and then returns a list of frames defining the
-   * interpolator path (which is different than that of {@link #keyFrames()}).
+   * interpolator path (which is different than that of {@link #keyFrames()}). The frames
+   * are only instantiated when the path changes.
    * <p>
-   * Use it in your interpolator path drawing routine.
+   * Prefer {@link #pathSamples()} in your interpolator path drawing routine, which
+   * doesn't allocate frames at all.
    */
   public List<Frame> path() {
     _updatePath();
+    if (!_pathFramesAreValid) {
+      _path.clear();
+      for (int offset = 0; offset < _pathSize * SAMPLE_STRIDE; offset += SAMPLE_STRIDE)
+        _path.add(new Frame(new Vector(_pathSamples[offset], _pathSamples[offset + 1], _pathSamples[offset + 2]),
+            new Quaternion(_pathSamples[offset + 3], _pathSamples[offset + 4], _pathSamples[offset + 5], _pathSamples[offset + 6], false),
+            _pathSamples[offset + 7]));
+      _pathFramesAreValid = true;
+    }
     return _path;
   }
 
+  /**
+   * Returns the packed path samples buffer, holding {@link #pathSize()} samples of
+   * {@link #SAMPLE_STRIDE} floats each: the position, orientation (in {@code (x,y,z,w)}
+   * order) and magnitude, all of them defined in the world coordinate system. The first
+   * and last samples are the first and last key frames.
+   * <p>
+   * The path is tessellated adaptively (see {@link #pathTolerance()}) and only when the
+   * key frames change. The buffer is reused between tessellations, so don't keep a
+   * reference to it and don't modify it.
+   *
+   * @see #pathSize()
+   * @see #path()
+   */
+  public float[] pathSamples() {
+    _updatePath();
+    return _pathSamples;
+  }
+
+  /**
+   * Returns the number of samples in the {@link #pathSamples()} buffer.
+   */
+  public int pathSize() {
+    _updatePath();
+    return _pathSize;
+  }
+
   /**
    * Internal use. Call {@link #_checkValidity()} and if path is not valid recomputes it.
+   * <p>
+   * Each segment is sampled uniformly, with as many steps as needed for the distance
+   * between the path and its tessellation to be below the {@link #pathTolerance()} times
+   * the distance between the segment key frames, and for the orientation of two
+   * consecutive samples to differ by less than {@code sqrt(8 * pathTolerance())} radians
+   * (up to {@link #MAX_PATH_STEPS} steps). The number of steps is bounded using the
+   * maximum of the segment Hermite curve second derivative, which is found at the segment
+   * ends.
    */
   protected void _updatePath() {
     _checkValidity();
-    if (!_pathIsValid) {
-      _path.clear();
-      int nbSteps = 30;
+    if (!_list.isEmpty())
+      _validateKeys();
+    if (_pathIsValid)
+      return;
+    _pathSize = 0;
+    _pathFramesAreValid = false;
+    _pathIsValid = true;
+    if (_list.isEmpty())
+      return;
+    if (_segmentStart == null || _segmentStart.length < _list.size())
+      _segmentStart = new int[_times.length];
+    for (int index = 0; index < _list.size() - 1; index++) {
+      int steps = _steps(index);
+      _segmentStart[index] = _pathSize;
+      _reserve(_pathSize + steps);
+      for (int step = 0; step < steps; step++)
+        _evaluate(index, index + 1, step / (float) steps, _pathSamples, (_pathSize++) * SAMPLE_STRIDE, _scratch);
+    }
+    // Add last KeyFrame
+    int last = _list.size() - 1;
+    _segmentStart[last] = _pathSize;
+    _reserve(_pathSize + 1);
+    _evaluate(last, last, 0, _pathSamples, (_pathSize++) * SAMPLE_STRIDE, _scratch);
+  }
 
-      if (_list.isEmpty())
-        return;
+  /**
+   * Internal use. Re-tessellates the path segments in the {@code [from, to]} range,
+   * shifting the samples of the following segments if the number of samples changes.
+   * Called by {@link #_updateDirtyFrames()}.
+   */
+  protected void _tessellate(int from, int to) {
+    int last = _list.size() - 1;
+    int start = _segmentStart[from];
+    int end = _segmentStart[to + 1];
+    int count = 0;
+    for (int index = from; index <= to; index++)
+      count += _steps(index);
+    int delta = count - (end - start);
+    if (delta != 0) {
+      _reserve(_pathSize + delta);
+      System.arraycopy(_pathSamples, end * SAMPLE_STRIDE, _pathSamples, (end + delta) * SAMPLE_STRIDE, (_pathSize - end) * SAMPLE_STRIDE);
+      _pathSize += delta;
+      for (int index = to + 1; index <= last; index++)
+        _segmentStart[index] += delta;
+    }
+    int sample = start;
+    for (int index = from; index <= to; index++) {
+      int steps = _steps(index);
+      _segmentStart[index] = sample;
+      for (int step = 0; step < steps; step++)
+        _evaluate(index, index + 1, step / (float) steps, _pathSamples, (sample++) * SAMPLE_STRIDE, _scratch);
+    }
+    if (to == last - 1)
+      _evaluate(last, last, 0, _pathSamples, sample * SAMPLE_STRIDE, _scratch);
+    _pathFramesAreValid = false;
+  }
 
-      if (!_valuesAreValid)
-        _updateModifiedFrames();
+  /**
+   * Internal use. Makes sure the {@link #pathSamples()} buffer has room for {@code size}
+   * samples.
+   */
+  protected void _reserve(int size) {
+    if (_pathSamples == null)
+      _pathSamples = new float[Math.max(size, MAX_PATH_STEPS + 1) * SAMPLE_STRIDE];
+    else if (_pathSamples.length < size * SAMPLE_STRIDE)
+      _pathSamples = Arrays.copyOf(_pathSamples, Math.max(size * SAMPLE_STRIDE, 2 * _pathSamples.length));
+  }
 
-      if (_list.get(0) == _list.get(_list.size() - 1))
-        _path.add(
-            new Frame(_list.get(0).position(), _list.get(0).orientation(), _list.get(0).magnitude()));
-      else {
-        KeyFrame[] kf = new KeyFrame[4];
-        kf[0] = _list.get(0);
-        kf[1] = kf[0];
-
-        int index = 1;
-        kf[2] = (index < _list.size()) ? _list.get(index) : null;
-        index++;
-        kf[3] = (index < _list.size()) ? _list.get(index) : null;
-
-        while (kf[2] != null) {
-          Vector pdiff = Vector.subtract(kf[2].position(), kf[1].position());
-          Vector pvec1 = Vector.add(Vector.multiply(pdiff, 3.0f), Vector.multiply(kf[1].tangentVector(), (-2.0f)));
-          pvec1 = Vector.subtract(pvec1, kf[2].tangentVector());
-          Vector pvec2 = Vector.add(Vector.multiply(pdiff, (-2.0f)), kf[1].tangentVector());
-          pvec2 = Vector.add(pvec2, kf[2].tangentVector());
-
-          for (int step = 0; step < nbSteps; ++step) {
-            float alpha = step / (float) nbSteps;
-            _path.add(new Frame(
-                Vector.add(kf[1].position(), Vector.multiply(Vector.add(kf[1].tangentVector(), Vector.multiply(Vector.add(pvec1, Vector.multiply(pvec2, alpha)), alpha)), alpha)),
-                Quaternion.squad(kf[1].orientation(), kf[1].tangentQuaternion(), kf[2].tangentQuaternion(), kf[2].orientation(), alpha),
-                Vector.lerp(kf[1].magnitude(), kf[2].magnitude(), alpha))
-            );
-          }
-
-          // Shift
-          kf[0] = kf[1];
-          kf[1] = kf[2];
-          kf[2] = kf[3];
-
-          index++;
-          kf[3] = (index < _list.size()) ? _list.get(index) : null;
-        }
-        // Add last KeyFrame
-        _path.add(new Frame(kf[1].position(), kf[1].orientation(), kf[1].magnitude()));
-      }
-      _pathIsValid = true;
+  /**
+   * Internal use. Returns the number of path steps of the segment starting at the key
+   * frame at {@code index}. See {@link #_updatePath()}.
+   */
+  protected int _steps(int index) {
+    int key1 = index * KEY_STRIDE, key2 = key1 + KEY_STRIDE;
+    // p''(alpha) = 2 * v1 + 6 * v2 * alpha
+    float chord = 0, start = 0, end = 0;
+    for (int i = 0; i < 3; i++) {
+      float delta = _keys[key2 + i] - _keys[key1 + i];
+      float tangent1 = _keys[key1 + 3 + i], tangent2 = _keys[key2 + 3 + i];
+      float v1 = 3.0f * delta - 2.0f * tangent1 - tangent2;
+      float v2 = -2.0f * delta + tangent1 + tangent2;
+      chord += delta * delta;
+      start += 4.0f * v1 * v1;
+      end += (2.0f * v1 + 6.0f * v2) * (2.0f * v1 + 6.0f * v2);
     }
+    // the distance between a curve and its chord of parameter length h is at most h^2 * max|p''| / 8
+    float curvature = (float) Math.sqrt(Math.max(start, end));
+    float steps = curvature == 0 ? 0 : (float) Math.sqrt(curvature / (8.0f * _pathTolerance * (float) Math.sqrt(chord)));
+    float dot = 0;
+    for (int i = 6; i < 10; i++)
+      dot += _keys[key1 + i] * _keys[key2 + i];
+    float angle = 2.0f * (float) Math.acos(Math.min(1.0f, Math.abs(dot)));
+    steps = Math.max(steps, angle / (float) Math.sqrt(8.0f * _pathTolerance));
+    if (!(steps < MAX_PATH_STEPS))
+      return MAX_PATH_STEPS;
+    return Math.max(1, (int) Math.ceil(steps));
   }
 
   /**
-   * Internal use. Calls {@link #_invalidateValues()} if a key frame (frame) defining the
-   * path was recently modified.
+   * Internal use. Records the key frames (frames) defining the path which were modified
+   * since the last check, so that only their neighbourhood is updated (see
+   * {@link #_updateValues()}).
+   * <p>
+   * Nothing is done when no frame at all has been modified since the last check. The key
+   * frames are otherwise checked by comparing their world generation stamps, which don't
+   * need to traverse the key frame ancestors more than once per generation.
    */
   protected void _checkValidity() {
-    boolean flag = false;
-    for (KeyFrame element : _list) {
-      if (element.frame().lastUpdate() > _lastUpdate()) {
-        flag = true;
-        break;
+    if (_generation == Frame._generation)
+      return;
+    _generation = Frame._generation;
+    for (int index = 0; index < _list.size(); index++) {
+      KeyFrame keyFrame = _list.get(index);
+      long version = keyFrame.frame()._worldVersion();
+      if (version != keyFrame._version) {
+        keyFrame._version = version;
+        if (_valuesAreValid) {
+          if (_dirtySize == _dirty.length)
+            _dirty = Arrays.copyOf(_dirty, 2 * _dirtySize);
+          _dirty[_dirtySize++] = index;
+        }
       }
     }
-    if (flag) {
-      this._invalidateValues();
-      this._checked();
-    }
   }
 
   /**
@@ -849,7 +1115,7 @@ public class Interpolator {
    * @see #keyFrame(int)
    */
   public float time(int index) {
-    return _list.get(index).time();
+    return _times[index];
   }
 
   /**
@@ -877,7 +1143,7 @@ public class Interpolator {
     if (_list.isEmpty())
       return 0.0f;
     else
-      return _list.get(0).time();
+      return _times[0];
   }
 
   /**
@@ -891,69 +1157,88 @@ public class Interpolator {
     if (_list.isEmpty())
       return 0.0f;
     else
-      return _list.get(_list.size() - 1).time();
+      return _times[_list.size() - 1];
   }
 
+  /**
+   * Internal use. Locates the key frames {@code _current1} and {@code _current2} enclosing
+   * {@code time}, i.e., {@code _current2} is the first key frame whose time is greater than
+   * or equal to {@code time} (or the last one) and {@code _current1} is the key frame
+   * preceding it (or {@code _current2} itself if its time equals {@code time}).
+   * <p>
+   * The current segment and its neighbours are tested first, so that regular playback is
+   * O(1). Otherwise the segment is found by binary search over the key frame times, so
+   * that random access (e.g., scrubbing with {@link #interpolate(float)}) is O(log n).
+   */
   protected void _updateCurrentKeyFrameForTime(float time) {
     // Assertion: times are sorted in monotone order.
     // Assertion: keyFrame_ is not empty
-
-    // TODO: Special case for loops when closed path is implemented !!
-    if (!_currentFrameValid)
-      // Recompute everything from scratch
-      _current1 = _list.listIterator();
-
-    // currentFrame_[1]->peekNext() <---> keyFr.get(_current1.nextIndex());
-    while (_list.get(_current1.nextIndex()).time() > time) {
-      _currentFrameValid = false;
-      if (!_current1.hasPrevious())
-        break;
-      _current1.previous();
-    }
-
-    if (!_currentFrameValid)
-      _current2 = _list.listIterator(_current1.nextIndex());
-
-    while (_list.get(_current2.nextIndex()).time() < time) {
-      _currentFrameValid = false;
-
-      if (!_current2.hasNext())
-        break;
-
-      _current2.next();
+    int current2 = -1;
+    if (_currentFrameValid)
+      for (int index = _current2 - 1; index <= _current2 + 1; index++)
+        if (_isCurrent(index, time)) {
+          current2 = index;
+          break;
+        }
+    if (current2 == -1)
+      current2 = _search(time);
+    int current1 = current2 > 0 && time < _times[current2] ? current2 - 1 : current2;
+    if (!_currentFrameValid || current1 != _current1 || current2 != _current2) {
+      _current1 = current1;
+      _current2 = current2;
+      _currentFrameValid = true;
+      _splineCacheIsValid = false;
     }
+  }
 
-    if (!_currentFrameValid) {
-      _current1 = _list.listIterator(_current2.nextIndex());
-
-      if ((_current1.hasPrevious()) && (time < _list.get(_current2.nextIndex()).time()))
-        _current1.previous();
-
-      _current0 = _list.listIterator(_current1.nextIndex());
-
-      if (_current0.hasPrevious())
-        _current0.previous();
-
-      _current3 = _list.listIterator(_current2.nextIndex());
-
-      if (_current3.hasNext())
-        _current3.next();
+  /**
+   * Internal use. Returns {@code true} if the key frame at {@code index} is the first
+   * one whose time is greater than or equal to {@code time} (or the last one when
+   * {@code time} is greater than {@link #lastTime()}).
+   */
+  protected boolean _isCurrent(int index, float time) {
+    int last = _list.size() - 1;
+    if (index < 0 || index > last)
+      return false;
+    if (_times[index] < time)
+      return index == last;
+    return index == 0 || _times[index - 1] < time;
+  }
 
-      _currentFrameValid = true;
-      _splineCacheIsValid = false;
+  /**
+   * Internal use. Returns the index of the first key frame whose time is greater than or
+   * equal to {@code time}, or the last index if there's none, using binary search.
+   */
+  protected int _search(float time) {
+    int low = 0, high = _list.size() - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (_times[middle] < time)
+        low = middle + 1;
+      else
+        high = middle;
     }
+    return low;
   }
 
   /**
    * Internal use. Used by {@link #interpolate(float)}.
    */
   protected void _updateSplineCache() {
-    Vector deltaP = Vector.subtract(_list.get(_current2.nextIndex()).position(),
-        _list.get(_current1.nextIndex()).position());
-    _vector1 = Vector.add(Vector.multiply(deltaP, 3.0f), Vector.multiply(_list.get(_current1.nextIndex()).tangentVector(), (-2.0f)));
-    _vector1 = Vector.subtract(_vector1, _list.get(_current2.nextIndex()).tangentVector());
-    _vector2 = Vector.add(Vector.multiply(deltaP, (-2.0f)), _list.get(_current1.nextIndex()).tangentVector());
-    _vector2 = Vector.add(_vector2, _list.get(_current2.nextIndex()).tangentVector());
+    if (_vector1 == null)
+      _vector1 = new Vector();
+    if (_vector2 == null)
+      _vector2 = new Vector();
+    KeyFrame keyFrame1 = _list.get(_current1);
+    KeyFrame keyFrame2 = _list.get(_current2);
+    Vector deltaP = Vector.subtract(keyFrame2.frame()._position(), keyFrame1.frame()._position(), _vector2);
+    float[] tangent1 = keyFrame1.tangentVector()._vector;
+    float[] tangent2 = keyFrame2.tangentVector()._vector;
+    for (int i = 0; i < 3; i++) {
+      float delta = deltaP._vector[i];
+      _vector1._vector[i] = 3.0f * delta - 2.0f * tangent1[i] - tangent2[i];
+      _vector2._vector[i] = -2.0f * delta + tangent1[i] + tangent2[i];
+    }
     _splineCacheIsValid = true;
   }
 
@@ -971,35 +1256,349 @@ public class Interpolator {
     if ((_list.isEmpty()) || (frame() == null))
       return;
 
-    if (!_valuesAreValid)
-      _updateModifiedFrames();
+    _updateValues();
+
+    if (constantSpeed() && duration() > 0)
+      time = timeAtDistance(length() * (time - firstTime()) / duration());
 
     _updateCurrentKeyFrameForTime(time);
 
     if (!_splineCacheIsValid)
       _updateSplineCache();
 
+    KeyFrame keyFrame1 = _list.get(_current1);
+    KeyFrame keyFrame2 = _list.get(_current2);
+
     float alpha;
-    float dt = _list.get(_current2.nextIndex()).time() - _list.get(_current1.nextIndex()).time();
+    float dt = _times[_current2] - _times[_current1];
     if (dt == 0)
       alpha = 0.0f;
     else
-      alpha = (time - _list.get(_current1.nextIndex()).time()) / dt;
+      alpha = (time - _times[_current1]) / dt;
 
-    Vector pos = Vector.add(_list.get(_current1.nextIndex()).position(), Vector.multiply(
-        Vector.add(_list.get(_current1.nextIndex()).tangentVector(),
-            Vector.multiply(Vector.add(_vector1, Vector.multiply(_vector2, alpha)), alpha)), alpha));
+    // pos = p1 + alpha * (t1 + alpha * (v1 + alpha * v2)), evaluated in place
+    Vector pos = Vector.multiply(_vector2, alpha, null);
+    pos.add(_vector1);
+    pos.multiply(alpha);
+    pos.add(keyFrame1.tangentVector());
+    pos.multiply(alpha);
+    pos.add(keyFrame1.position());
 
-    float mag = Vector.lerp(_list.get(_current1.nextIndex()).magnitude(),
-        _list.get(_current2.nextIndex()).magnitude(), alpha);
+    float mag = Vector.lerp(keyFrame1.magnitude(), keyFrame2.magnitude(), alpha);
 
-    Quaternion q = Quaternion.squad(_list.get(_current1.nextIndex()).orientation(),
-        _list.get(_current1.nextIndex()).tangentQuaternion(),
-        _list.get(_current2.nextIndex()).tangentQuaternion(),
-        _list.get(_current2.nextIndex()).orientation(), alpha);
+    Quaternion q = Quaternion.squad(keyFrame1.orientation(), keyFrame1.tangentQuaternion(),
+        keyFrame2.tangentQuaternion(), keyFrame2.orientation(), alpha);
 
     frame().setPosition(pos);
     frame().setRotation(q);
     frame().setMagnitude(mag);
   }
+
+  // Arc-length
+
+  /**
+   * Returns the length of the path defined by the key frames.
+   *
+   * @see #positionAtDistance(float)
+   * @see #timeAtDistance(float)
+   */
+  public float length() {
+    _updateArcLength();
+    return _samples == 0 ? 0 : _distances[_samples - 1];
+  }
+
+  /**
+   * Returns the position (defined in the world coordinate system) of the path point at
+   * {@code distance} from the first key frame along the path. {@code distance} is clamped
+   * to {@code [0..length()]}.
+   *
+   * @see #length()
+   * @see #timeAtDistance(float)
+   */
+  public Vector positionAtDistance(float distance) {
+    if (_list.isEmpty())
+      return null;
+    float time = timeAtDistance(distance);
+    int index2 = _search(time);
+    int index1 = index2 > 0 && time < _times[index2] ? index2 - 1 : index2;
+    float dt = _times[index2] - _times[index1];
+    return _position(index1, index2, dt == 0 ? 0 : (time - _times[index1]) / dt, null);
+  }
+
+  /**
+   * Returns the key frame time (expressed in seconds) at which the path reaches the given
+   * {@code distance} from the first key frame. {@code distance} is clamped to
+   * {@code [0..length()]}. Computed by binary search over the arc-length table and linear
+   * interpolation between its samples.
+   *
+   * @see #length()
+   * @see #positionAtDistance(float)
+   */
+  public float timeAtDistance(float distance) {
+    _updateArcLength();
+    if (_samples < 2)
+      return firstTime();
+    if (distance <= 0)
+      return _sampleTimes[0];
+    if (distance >= _distances[_samples - 1])
+      return _sampleTimes[_samples - 1];
+    int low = 1, high = _samples - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (_distances[middle] < distance)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    float delta = _distances[low] - _distances[low - 1];
+    float alpha = delta == 0 ? 0 : (distance - _distances[low - 1]) / delta;
+    return _sampleTimes[low - 1] + alpha * (_sampleTimes[low] - _sampleTimes[low - 1]);
+  }
+
+  /**
+   * Internal use. Rebuilds the arc-length table if the key frames changed since it was
+   * last built. Each path segment is sampled {@link #ARC_LENGTH_SAMPLES} times.
+   */
+  protected void _updateArcLength() {
+    _checkValidity();
+    if (_list.isEmpty()) {
+      _samples = 0;
+      return;
+    }
+    _updateValues();
+    if (_arcLengthIsValid)
+      return;
+    int size = (_list.size() - 1) * ARC_LENGTH_SAMPLES + 1;
+    if (_distances == null || _distances.length < size) {
+      _distances = new float[size];
+      _sampleTimes = new float[size];
+    }
+    _distances[0] = 0;
+    _sampleTimes[0] = _times[0];
+    _measure(0, _list.size() - 2);
+    _samples = size;
+    _arcLengthIsValid = true;
+  }
+
+  /**
+   * Internal use. Updates the arc-length table entries of the segments in the
+   * {@code [from, to]} range, and shifts the distances of the following ones accordingly.
+   * Called by {@link #_updateDirtyFrames()}.
+   */
+  protected void _remeasure(int from, int to) {
+    int end = (to + 1) * ARC_LENGTH_SAMPLES;
+    float distance = _distances[end];
+    _measure(from, to);
+    float delta = _distances[end] - distance;
+    for (int sample = end + 1; sample < _samples; sample++)
+      _distances[sample] += delta;
+  }
+
+  /**
+   * Internal use. Samples the segments in the {@code [from, to]} range to fill their
+   * arc-length table entries, provided that the distance of the first sample of segment
+   * {@code from} is known.
+   */
+  protected void _measure(int from, int to) {
+    if (_sample == null)
+      _sample = new Vector();
+    Vector previous = _list.get(from).position();
+    int sample = from * ARC_LENGTH_SAMPLES + 1;
+    for (int index = from; index <= to; index++)
+      for (int step = 1; step <= ARC_LENGTH_SAMPLES; step++) {
+        float alpha = step / (float) ARC_LENGTH_SAMPLES;
+        _position(index, index + 1, alpha, _sample);
+        _distances[sample] = _distances[sample - 1] + Vector.distance(previous, _sample);
+        _sampleTimes[sample] = _times[index] + alpha * (_times[index + 1] - _times[index]);
+        previous.set(_sample);
+        sample++;
+      }
+  }
+
+  /**
+   * Internal use. Evaluates the Hermite curve position of the segment defined by the key
+   * frames at {@code index1} and {@code index2} at {@code alpha} (in {@code [0..1]}). The
+   * result is stored in {@code target} (if null, a new vector will be created) which is
+   * then returned.
+   */
+  protected Vector _position(int index1, int index2, float alpha, Vector target) {
+    if (target == null)
+      target = new Vector();
+    KeyFrame keyFrame1 = _list.get(index1);
+    KeyFrame keyFrame2 = _list.get(index2);
+    float[] position1 = keyFrame1.frame()._position()._vector;
+    float[] position2 = keyFrame2.frame()._position()._vector;
+    float[] tangent1 = keyFrame1.tangentVector()._vector;
+    float[] tangent2 = keyFrame2.tangentVector()._vector;
+    for (int i = 0; i < 3; i++) {
+      float delta = position2[i] - position1[i];
+      float v1 = 3.0f * delta - 2.0f * tangent1[i] - tangent2[i];
+      float v2 = -2.0f * delta + tangent1[i] + tangent2[i];
+      target._vector[i] = position1[i] + alpha * (tangent1[i] + alpha * (v1 + alpha * v2));
+    }
+    return target;
+  }
+
+  // Engine
+
+  /**
+   * Internal use. Validates the key frames, packs them (see {@link #_pack()}) and sets
+   * {@link #time()}. Returns the key frame time at which the interpolator should be
+   * evaluated, which differs from {@code time} when {@link #constantSpeed()}. Called by the
+   * {@link #engine()} before {@link #_evaluate(float, float[], int, float[])}.
+   */
+  protected float _prepare(float time) {
+    _checkValidity();
+    setTime(time);
+    _validateKeys();
+    if (constantSpeed() && duration() > 0)
+      time = timeAtDistance(length() * (time - firstTime()) / duration());
+    return time;
+  }
+
+  /**
+   * Internal use. Makes sure the key frame tangents are computed and packed (see
+   * {@link #_pack()}). The key frames shouldn't be empty.
+   */
+  protected void _validateKeys() {
+    _updateValues();
+    if (!_keysAreValid)
+      _pack();
+    if (_scratch == null)
+      _scratch = new float[SCRATCH_SIZE];
+  }
+
+  /**
+   * Evaluates the path at the key frame {@code time} (expressed in seconds) and stores the
+   * resulting position, orientation and magnitude (defined in the world coordinate system)
+   * into {@code target} at {@code offset}, using the {@link #pathSamples()} layout (see
+   * {@link #SAMPLE_STRIDE}). Neither the {@link #frame()} nor the {@link #time()} are
+   * modified and no objects are allocated.
+   * <p>
+   * Note that contrary to {@link #interpolate(float)}, {@code time} isn't remapped when
+   * the interpolator has {@link #constantSpeed()}.
+   */
+  public void evaluate(float time, float[] target, int offset) {
+    _checkValidity();
+    if (_list.isEmpty())
+      return;
+    _validateKeys();
+    _evaluate(time, target, offset, _scratch);
+  }
+
+  /**
+   * Internal use. Packs the key frame positions, tangents, orientations and magnitudes
+   * into a single float array (see {@link #KEY_STRIDE}).
+   */
+  protected void _pack() {
+    if (_keys == null || _keys.length < _list.size() * KEY_STRIDE)
+      _keys = new float[_times.length * KEY_STRIDE];
+    for (int index = 0; index < _list.size(); index++)
+      _pack(index);
+    _keysAreValid = true;
+  }
+
+  /**
+   * Internal use. Packs the key frame at {@code index}. See {@link #_pack()}.
+   */
+  protected void _pack(int index) {
+    KeyFrame keyFrame = _list.get(index);
+    int offset = index * KEY_STRIDE;
+    System.arraycopy(keyFrame.frame()._position()._vector, 0, _keys, offset, 3);
+    System.arraycopy(keyFrame.tangentVector()._vector, 0, _keys, offset + 3, 3);
+    System.arraycopy(keyFrame.frame()._orientation()._quaternion, 0, _keys, offset + 6, 4);
+    System.arraycopy(keyFrame.tangentQuaternion()._quaternion, 0, _keys, offset + 10, 4);
+    _keys[offset + 14] = keyFrame.magnitude();
+  }
+
+  /**
+   * Internal use. Evaluates the packed key frames at key frame {@code time} and stores the
+   * resulting position, rotation and magnitude into {@code result} at {@code offset} (see
+   * {@link #SAMPLE_STRIDE}). Same as {@link #interpolate(float)}, but it doesn't allocate
+   * and it doesn't modify the interpolator, so that it may be called concurrently.
+   * {@code scratch} should have room for {@link #SCRATCH_SIZE} floats.
+   */
+  protected void _evaluate(float time, float[] result, int offset, float[] scratch) {
+    int index2 = _search(time);
+    int index1 = index2 > 0 && time < _times[index2] ? index2 - 1 : index2;
+    float dt = _times[index2] - _times[index1];
+    _evaluate(index1, index2, dt == 0 ? 0.0f : (time - _times[index1]) / dt, result, offset, scratch);
+  }
+
+  /**
+   * Internal use. Evaluates the segment defined by the packed key frames at {@code index1}
+   * and {@code index2} at {@code alpha} (in {@code [0..1]}). See
+   * {@link #_evaluate(float, float[], int, float[])}.
+   */
+  protected void _evaluate(int index1, int index2, float alpha, float[] result, int offset, float[] scratch) {
+    int key1 = index1 * KEY_STRIDE, key2 = index2 * KEY_STRIDE;
+    for (int i = 0; i < 3; i++) {
+      float delta = _keys[key2 + i] - _keys[key1 + i];
+      float tangent1 = _keys[key1 + 3 + i], tangent2 = _keys[key2 + 3 + i];
+      float v1 = 3.0f * delta - 2.0f * tangent1 - tangent2;
+      float v2 = -2.0f * delta + tangent1 + tangent2;
+      result[offset + i] = _keys[key1 + i] + alpha * (tangent1 + alpha * (v1 + alpha * v2));
+    }
+    // squad, see Quaternion.squad()
+    _slerp(_keys, key1 + 6, _keys, key2 + 6, alpha, true, result, offset + 3);
+    _slerp(_keys, key1 + 10, _keys, key2 + 10, alpha, false, scratch, 0);
+    _slerp(result, offset + 3, scratch, 0, 2.0f * alpha * (1.0f - alpha), false, result, offset + 3);
+    result[offset + 7] = Vector.lerp(_keys[key1 + 14], _keys[key2 + 14], alpha);
+  }
+
+  /**
+   * Internal use. Packed version of {@link Quaternion#slerp(Quaternion, Quaternion, float, boolean)}.
+   * The quaternions are read from {@code a} and {@code b} at offsets {@code i} and {@code j},
+   * resp., and the result is stored into {@code target} at offset {@code k} (which may
+   * overlap with any of them).
+   */
+  protected static void _slerp(float[] a, int i, float[] b, int j, float t, boolean allowFlip, float[] target, int k) {
+    float cosAngle = a[i] * b[j] + a[i + 1] * b[j + 1] + a[i + 2] * b[j + 2] + a[i + 3] * b[j + 3];
+    float c1, c2;
+    if ((1.0 - Math.abs(cosAngle)) < 0.01) {
+      c1 = 1.0f - t;
+      c2 = t;
+    } else {
+      float angle = (float) Math.acos(Math.abs(cosAngle));
+      float sinAngle = (float) Math.sin(angle);
+      c1 = (float) Math.sin(angle * (1.0f - t)) / sinAngle;
+      c2 = (float) Math.sin(angle * t) / sinAngle;
+    }
+    if (allowFlip && (cosAngle < 0.0))
+      c1 = -c1;
+    float x = c1 * a[i] + c2 * b[j];
+    float y = c1 * a[i + 1] + c2 * b[j + 1];
+    float z = c1 * a[i + 2] + c2 * b[j + 2];
+    float w = c1 * a[i + 3] + c2 * b[j + 3];
+    target[k] = x;
+    target[k + 1] = y;
+    target[k + 2] = z;
+    target[k + 3] = w;
+  }
+
+  /**
+   * Internal use. Sets the {@link #frame()} position, rotation and magnitude from the
+   * {@code result} computed by {@link #_evaluate(float, float[], int, float[])}.
+   */
+  protected void _apply(float[] result, int offset) {
+    _apply(frame(), result, offset);
+  }
+
+  /**
+   * Internal use. Sets the {@code frame} position, rotation and magnitude from the
+   * packed {@code result} (see {@link #SAMPLE_STRIDE}). Root frames without a constraint
+   * are updated in place.
+   */
+  protected static void _apply(Frame frame, float[] result, int offset) {
+    if (frame.reference() == null && frame.constraint() == null && result[offset + 7] > 0) {
+      System.arraycopy(result, offset, frame._translation._vector, 0, 3);
+      System.arraycopy(result, offset + 3, frame._rotation._quaternion, 0, 4);
+      frame._scaling = result[offset + 7];
+      frame._modified();
+    } else {
+      frame.setPosition(new Vector(result[offset], result[offset + 1], result[offset + 2]));
+      frame.setRotation(new Quaternion(result[offset + 3], result[offset + 4], result[offset + 5], result[offset + 6], false));
+      frame.setMagnitude(result[offset + 7]);
+    }
+  }
 }
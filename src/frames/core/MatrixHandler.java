@@ -43,6 +43,11 @@ public class MatrixHandler {
   protected Matrix _projection, _view, _modelview;
   protected Matrix _projectionView, _projectionViewInverse;
   protected boolean _isProjectionViewInverseCached, _projectionViewHasInverse;
+  // projection computed from the eye parameters, kept apart from _projection which may be
+  // modified while drawing (e.g., by applyProjection(Matrix) or beginHUD())
+  protected Matrix _eyeProjection;
+  // Graph._viewVersion() the cached matrices were computed at
+  protected long _viewVersion = -1;
 
   public static int STACK_DEPTH = 32;
   public static String ERROR_PUSHMATRIX_OVERFLOW = "Too many calls to pushModelView().";
@@ -63,6 +68,7 @@ public class MatrixHandler {
     _view = new Matrix();
     _modelview = new Matrix();
     _projectionView = new Matrix();
+    _eyeProjection = new Matrix();
     _isProjectionViewInverseCached = false;
   }
 
@@ -83,6 +89,9 @@ public class MatrixHandler {
    * this method also binds the projection and view matrices to that renderer.
    * In this case, note that {@link #_bindProjection(Matrix)} and {@link #_bindModelView(Matrix)}
    * should be overridden, by implementing them in terms of the renderer parameters.
+   * <p>
+   * The projection and view matrices are only recomputed when the eye parameters have
+   * changed (see {@link #_validateCache()}).
    *
    * @see Graph#preDraw()
    * @see Frame#projection(Graph.Type, float, float, float, float, boolean)
@@ -91,9 +100,7 @@ public class MatrixHandler {
    * @see #_bindModelView(Matrix)
    */
   protected void _bind() {
-    _projection.set(graph().eye().projection(graph().type(), graph().width(), graph().height(), graph().zNear(), graph().zFar(), graph().isLeftHanded()));
-    _view.set(graph().eye().view());
-    _cacheProjectionView(Matrix.multiply(cacheProjection(), cacheView()));
+    _validateCache();
     // TODO _bindProjection is redundant when there's no binding of the matrices
     // We could go like this (but I don't know if it works in JS):
     //if(graph().getClass() != Graph.class)
@@ -102,6 +109,27 @@ public class MatrixHandler {
     _setUniforms();
   }
 
+  /**
+   * Recomputes the cached projection, view and projection times view matrices from the
+   * {@link #graph()} {@link Graph#eye()} parameters, but only if any of them has changed
+   * since they were last computed, i.e., when the eye frame (or any of its ancestors),
+   * the graph {@link Graph#width()}, {@link Graph#height()}, {@link Graph#type()},
+   * handedness or the {@link Graph#zNear()} and {@link Graph#zFar()} values have changed.
+   * Then resets the {@link #cacheProjection()} to the eye projection.
+   * <p>
+   * Called by {@link #_bind()}.
+   */
+  protected void _validateCache() {
+    long version = graph()._viewVersion();
+    if (_viewVersion != version) {
+      _eyeProjection.set(graph().eye().projection(graph().type(), graph().width(), graph().height(), graph().zNear(), graph().zFar(), graph().isLeftHanded()));
+      _view.set(graph().eye().view());
+      _cacheProjectionView(Matrix.multiply(_eyeProjection, _view));
+      _viewVersion = version;
+    }
+    _projection.set(_eyeProjection);
+  }
+
   // 1. May be overridden
 
   /**
@@ -338,6 +366,9 @@ public class MatrixHandler {
    * @see #cacheProjectionView()
    */
   public void cacheProjectionViewInverse(boolean optimise) {
+    // forces the inverse computation at the next _bind()
+    if (optimise && !_isProjectionViewInverseCached)
+      _viewVersion = -1;
     _isProjectionViewInverseCached = optimise;
   }
 
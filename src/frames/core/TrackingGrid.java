@@ -0,0 +1,219 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.core;
+
+import java.util.Arrays;
+
+/**
+ * A screen space uniform grid indexing the frames projected during a {@link Graph#traverse()},
+ * so that the {@link Graph#track(String, float, float)} and {@link Graph#cast(String, float, float)}
+ * queries don't need to test every frame.
+ * <p>
+ * Each frame is added (in traversal order) as the screen square centered at its projected
+ * position and having its precision threshold as size (see {@link Frame#precision()}). The
+ * grid cells are lazily filled at the first query, keeping the traversal order within each
+ * cell, so that a query only tests the frames overlapping the queried cell and returns the
+ * first one (in traversal order) picked by the pixel, which is the same frame the
+ * non-indexed algorithm would return.
+ * <p>
+ * Frames whose squares are too big (see {@link #MAX_CELLS}), or whose picking condition
+ * isn't a screen square (see {@link #add(Frame)}), are tested linearly.
+ *
+ * @see Graph#enableTrackingIndex(boolean)
+ */
+public class TrackingGrid {
+  /**
+   * Size of the grid cells in pixels.
+   */
+  public static int CELL_SIZE = 32;
+  /**
+   * Frames whose squares overlap more than {@code MAX_CELLS} cells are tested linearly.
+   */
+  public static int MAX_CELLS = 16;
+
+  protected Graph _graph;
+
+  // entries, in traversal order
+  protected Frame[] _frames;
+  protected float[] _x, _y, _threshold;
+  protected int _size;
+  protected int[] _large;
+  protected int _largeSize;
+
+  // cells
+  protected int _columns, _rows;
+  protected int[] _cellStart;
+  protected int[] _cellEntries;
+  protected int[] _cursor;
+  protected boolean _built;
+
+  /**
+   * Creates an empty grid for the given {@code graph}.
+   */
+  public TrackingGrid(Graph graph) {
+    _graph = graph;
+    _frames = new Frame[64];
+    _x = new float[64];
+    _y = new float[64];
+    _threshold = new float[64];
+    _large = new int[16];
+  }
+
+  /**
+   * Removes all the frames from the grid and sets its size to cover a screen of
+   * {@code width * height} pixels.
+   */
+  public void clear(int width, int height) {
+    Arrays.fill(_frames, 0, _size, null);
+    _size = 0;
+    _largeSize = 0;
+    _columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+    _rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+    _built = false;
+  }
+
+  /**
+   * Returns the number of frames in the grid.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Adds the {@code frame} as the screen square centered at {@code (x, y)} and having
+   * {@code 2 * threshold} pixels as size.
+   */
+  public void add(Frame frame, float x, float y, float threshold) {
+    int index = _add(frame, x, y, threshold);
+    if ((_column(x + threshold) - _column(x - threshold) + 1) * (_row(y + threshold) - _row(y - threshold) + 1) > MAX_CELLS)
+      _addLarge(index);
+  }
+
+  /**
+   * Adds the {@code frame} to be tested linearly with {@link Graph#tracks(float, float, Frame)}.
+   * Useful for frames having a picking condition different than a screen square, e.g.,
+   * those picked with a back buffer.
+   */
+  public void add(Frame frame) {
+    _addLarge(_add(frame, 0, 0, -1));
+  }
+
+  /**
+   * Returns the first frame (in traversal order) picked at pixel {@code (x, y)}, or
+   * {@code null} if no frame is found.
+   */
+  public Frame track(float x, float y) {
+    if (!_built)
+      _build();
+    int result = Integer.MAX_VALUE;
+    int cell = _row(y) * _columns + _column(x);
+    for (int i = _cellStart[cell]; i < _cellStart[cell + 1]; i++)
+      if (_tracks(_cellEntries[i], x, y)) {
+        result = _cellEntries[i];
+        break;
+      }
+    for (int i = 0; i < _largeSize && _large[i] < result; i++)
+      if (_tracks(_large[i], x, y)) {
+        result = _large[i];
+        break;
+      }
+    return result == Integer.MAX_VALUE ? null : _frames[result];
+  }
+
+  /**
+   * Used by {@link #track(float, float)}.
+   */
+  protected boolean _tracks(int index, float x, float y) {
+    if (_threshold[index] < 0)
+      return _graph.tracks(x, y, _frames[index]);
+    return Math.abs(x - _x[index]) < _threshold[index] && Math.abs(y - _y[index]) < _threshold[index];
+  }
+
+  /**
+   * Used by {@link #track(float, float)} to fill the cells with the (non-large) entries,
+   * preserving the traversal order.
+   */
+  protected void _build() {
+    int cells = _columns * _rows;
+    if (_cellStart == null || _cellStart.length < cells + 1) {
+      _cellStart = new int[cells + 1];
+      _cursor = new int[cells];
+    } else
+      Arrays.fill(_cellStart, 0);
+    int large = 0;
+    for (int index = 0; index < _size; index++) {
+      if (large < _largeSize && _large[large] == index) {
+        large++;
+        continue;
+      }
+      for (int row = _row(_y[index] - _threshold[index]); row <= _row(_y[index] + _threshold[index]); row++)
+        for (int column = _column(_x[index] - _threshold[index]); column <= _column(_x[index] + _threshold[index]); column++)
+          _cellStart[row * _columns + column + 1]++;
+    }
+    for (int cell = 0; cell < cells; cell++)
+      _cellStart[cell + 1] += _cellStart[cell];
+    if (_cellEntries == null || _cellEntries.length < _cellStart[cells])
+      _cellEntries = new int[Math.max(_cellStart[cells], 2 * _size)];
+    System.arraycopy(_cellStart, 0, _cursor, 0, cells);
+    large = 0;
+    for (int index = 0; index < _size; index++) {
+      if (large < _largeSize && _large[large] == index) {
+        large++;
+        continue;
+      }
+      for (int row = _row(_y[index] - _threshold[index]); row <= _row(_y[index] + _threshold[index]); row++)
+        for (int column = _column(_x[index] - _threshold[index]); column <= _column(_x[index] + _threshold[index]); column++)
+          _cellEntries[_cursor[row * _columns + column]++] = index;
+    }
+    _built = true;
+  }
+
+  /**
+   * Returns the (clamped) grid column containing the screen {@code x} coordinate.
+   */
+  protected int _column(float x) {
+    return Math.max(0, Math.min(_columns - 1, (int) Math.floor(x / CELL_SIZE)));
+  }
+
+  /**
+   * Returns the (clamped) grid row containing the screen {@code y} coordinate.
+   */
+  protected int _row(float y) {
+    return Math.max(0, Math.min(_rows - 1, (int) Math.floor(y / CELL_SIZE)));
+  }
+
+  /**
+   * Used by {@link #add(Frame, float, float, float)} and {@link #add(Frame)}.
+   */
+  protected int _add(Frame frame, float x, float y, float threshold) {
+    if (_size == _frames.length) {
+      _frames = Arrays.copyOf(_frames, 2 * _size);
+      _x = Arrays.copyOf(_x, 2 * _size);
+      _y = Arrays.copyOf(_y, 2 * _size);
+      _threshold = Arrays.copyOf(_threshold, 2 * _size);
+    }
+    _frames[_size] = frame;
+    _x[_size] = x;
+    _y[_size] = y;
+    _threshold[_size] = threshold;
+    _built = false;
+    return _size++;
+  }
+
+  /**
+   * Marks the entry at {@code index} to be tested linearly.
+   */
+  protected void _addLarge(int index) {
+    if (_largeSize == _large.length)
+      _large = Arrays.copyOf(_large, 2 * _largeSize);
+    _large[_largeSize++] = index;
+  }
+}
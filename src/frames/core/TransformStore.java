@@ -0,0 +1,425 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.core;
+
+import java.util.Arrays;
+
+/**
+ * A transform store packs the local and world transformations of a (possibly very large)
+ * set of frames into primitive float arrays, so that the world transformations of all
+ * of them may be computed in a single linear sweep, instead of chasing the frame
+ * {@link Frame#reference()} pointers.
+ * <p>
+ * Frames are added to the store with {@link #add(Frame)}, which also adds the frame
+ * ancestors (if they are not already in the store). Once added, a frame is said to be
+ * backed by the store (see {@link Frame#store()}): its local
+ * {@link Frame#translation()}, {@link Frame#rotation()} and {@link Frame#scaling()} are
+ * automatically mirrored into the store every time the frame is modified, and its
+ * {@link Frame#position()}, {@link Frame#orientation()} and {@link Frame#magnitude()}
+ * are read from the store world arrays, which are lazily updated (see {@link #update()}).
+ * <p>
+ * Each frame is identified by its store index (see {@link #index(Frame)}). The arrays
+ * returned by {@link #translations()}, {@link #rotations()}, {@link #scalings()},
+ * {@link #positions()}, {@link #orientations()}, {@link #magnitudes()} and
+ * {@link #parents()} are indexed accordingly, i.e., the translation of the frame of index
+ * {@code i} is found at {@code translations()[3 * i]}, {@code translations()[3 * i + 1]}
+ * and {@code translations()[3 * i + 2]}. Quaternions are stored in {@code (x,y,z,w)}
+ * order. The parent index of a root frame is {@code -1}.
+ * <p>
+ * Only the modified frames and their descendants are swept again by {@link #update()},
+ * unless a large part of the store has been modified, in which case all of them are.
+ * <p>
+ * Note that frames cannot be removed from a store.
+ *
+ * @see Frame#store()
+ */
+public class TransformStore {
+  protected Frame[] _frames;
+  protected int _size;
+
+  // local transformations
+  protected float[] _translation;
+  protected float[] _rotation;
+  protected float[] _scaling;
+  protected int[] _parent;
+
+  // world transformations
+  protected float[] _position;
+  protected float[] _orientation;
+  protected float[] _magnitude;
+
+  // sweep order
+  protected int[] _order;
+  protected boolean _ordered;
+  protected volatile boolean _dirty;
+  protected long _version;
+
+  // frames modified since the last update
+  protected int[] _modified;
+  protected int _modifiedSize;
+  protected boolean[] _isModified;
+
+  // first child and next sibling indices, used to sweep the modified subtrees
+  protected int[] _child, _sibling;
+  protected boolean _linked;
+
+  /**
+   * Same as {@code this(64)}.
+   *
+   * @see #TransformStore(int)
+   */
+  public TransformStore() {
+    this(64);
+  }
+
+  /**
+   * Creates an empty store with room for {@code capacity} frames. The store grows
+   * automatically as needed.
+   */
+  public TransformStore(int capacity) {
+    if (capacity < 1)
+      capacity = 1;
+    _frames = new Frame[capacity];
+    _translation = new float[3 * capacity];
+    _rotation = new float[4 * capacity];
+    _scaling = new float[capacity];
+    _parent = new int[capacity];
+    _position = new float[3 * capacity];
+    _orientation = new float[4 * capacity];
+    _magnitude = new float[capacity];
+    _modified = new int[capacity];
+    _isModified = new boolean[capacity];
+    _child = new int[capacity];
+    _sibling = new int[capacity];
+    _ordered = true;
+  }
+
+  /**
+   * Adds the {@code frame} (together with its ancestors) to the store and returns its
+   * store index. Returns the current index if the frame is already backed by this
+   * store and {@code -1} if it is backed by another store.
+   *
+   * @see #index(Frame)
+   */
+  public int add(Frame frame) {
+    if (frame == null)
+      return -1;
+    if (frame._store == this)
+      return frame._storeIndex;
+    if (frame._store != null) {
+      System.out.println("Warning: frame is already backed by another store. Nothing done");
+      return -1;
+    }
+    if (!_accepts(frame.reference())) {
+      System.out.println("Warning: frame ancestors are backed by another store. Nothing done");
+      return -1;
+    }
+    Frame reference = frame.reference();
+    if (reference != null && add(reference) == -1)
+      return -1;
+    if (_size == _frames.length)
+      _grow(2 * _frames.length);
+    int index = _size++;
+    _frames[index] = frame;
+    if (_order != null)
+      _ordered = false;
+    _linked = false;
+    frame._store = this;
+    frame._storeIndex = index;
+    _sync(frame);
+    return index;
+  }
+
+  /**
+   * Returns {@code true} if the {@code frame} and its ancestors may be backed by this store,
+   * i.e., if none of them is backed by another store, and {@code false} otherwise.
+   */
+  protected boolean _accepts(Frame frame) {
+    for (; frame != null; frame = frame.reference())
+      if (frame._store != null && frame._store != this)
+        return false;
+    return true;
+  }
+
+  /**
+   * Returns the store index of {@code frame}, or {@code -1} if the frame isn't backed by
+   * this store.
+   */
+  public int index(Frame frame) {
+    return frame != null && frame._store == this ? frame._storeIndex : -1;
+  }
+
+  /**
+   * Returns the frame of the given store {@code index}.
+   */
+  public Frame frame(int index) {
+    return _frames[index];
+  }
+
+  /**
+   * Returns the number of frames in the store.
+   */
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Returns the packed local translations array. Don't modify it directly, use the
+   * frame setters instead.
+   */
+  public float[] translations() {
+    return _translation;
+  }
+
+  /**
+   * Returns the packed local rotations array. Don't modify it directly, use the
+   * frame setters instead.
+   */
+  public float[] rotations() {
+    return _rotation;
+  }
+
+  /**
+   * Returns the packed local scalings array. Don't modify it directly, use the
+   * frame setters instead.
+   */
+  public float[] scalings() {
+    return _scaling;
+  }
+
+  /**
+   * Returns the parent indices array. Root frames have a {@code -1} parent index.
+   */
+  public int[] parents() {
+    return _parent;
+  }
+
+  /**
+   * Returns the packed world positions array, after calling {@link #update()}.
+   */
+  public float[] positions() {
+    update();
+    return _position;
+  }
+
+  /**
+   * Returns the packed world orientations array, after calling {@link #update()}.
+   */
+  public float[] orientations() {
+    update();
+    return _orientation;
+  }
+
+  /**
+   * Returns the packed world magnitudes array, after calling {@link #update()}.
+   */
+  public float[] magnitudes() {
+    update();
+    return _magnitude;
+  }
+
+  /**
+   * Updates the world transformations of the frames in the store which have been modified
+   * (together with those of their descendants) since the last update. Parents are always
+   * swept before their children. Automatically called when querying the world
+   * transformation of a backed frame.
+   * <p>
+   * The sweep is synchronized since it may be called from the {@link Graph#updateTransforms()}
+   * worker threads. Calling this method on an up to date store is just a flag check.
+   */
+  public void update() {
+    if (_dirty)
+      _sweep();
+  }
+
+  /**
+   * Used by {@link #update()}. Sweeps either the modified subtrees or, if a large part of
+   * the store has been modified or its structure changed, the whole store.
+   */
+  protected synchronized void _sweep() {
+    if (!_dirty)
+      return;
+    if (!_ordered || 4 * _modifiedSize > _size) {
+      if (!_ordered)
+        _sort();
+      if (_order == null)
+        for (int i = 0; i < _size; i++)
+          _update(i);
+      else
+        for (int i = 0; i < _size; i++)
+          _update(_order[i]);
+    } else {
+      if (!_linked)
+        _link();
+      for (int i = 0; i < _modifiedSize; i++)
+        if (!_hasModifiedAncestor(_modified[i]))
+          _updateBranch(_modified[i]);
+    }
+    for (int i = 0; i < _modifiedSize; i++)
+      _isModified[_modified[i]] = false;
+    _modifiedSize = 0;
+    _version++;
+    _dirty = false;
+  }
+
+  /**
+   * Used by {@link #_sweep()}. Returns {@code true} if an ancestor of the frame at
+   * {@code index} has been modified, in which case its branch is swept from the ancestor.
+   */
+  protected boolean _hasModifiedAncestor(int index) {
+    for (int parent = _parent[index]; parent != -1; parent = _parent[parent])
+      if (_isModified[parent])
+        return true;
+    return false;
+  }
+
+  /**
+   * Used by {@link #_sweep()}. Updates the world transformation of the frame at
+   * {@code index} and then those of its descendants.
+   */
+  protected void _updateBranch(int index) {
+    _update(index);
+    for (int child = _child[index]; child != -1; child = _sibling[child])
+      _updateBranch(child);
+  }
+
+  /**
+   * Used by {@link #_sweep()} to rebuild the first child and next sibling indices after the
+   * store structure changed.
+   */
+  protected void _link() {
+    Arrays.fill(_child, 0, _size, -1);
+    for (int i = _size - 1; i >= 0; i--) {
+      int parent = _parent[i];
+      if (parent != -1) {
+        _sibling[i] = _child[parent];
+        _child[parent] = i;
+      } else
+        _sibling[i] = -1;
+    }
+    _linked = true;
+  }
+
+  /**
+   * Used by {@link #update()}. Computes the world transformation of the frame at
+   * {@code index} from the one of its parent.
+   */
+  protected void _update(int index) {
+    int parent = _parent[index];
+    int i3 = 3 * index, i4 = 4 * index;
+    if (parent == -1) {
+      System.arraycopy(_translation, i3, _position, i3, 3);
+      System.arraycopy(_rotation, i4, _orientation, i4, 4);
+      _magnitude[index] = _scaling[index];
+      return;
+    }
+    int p3 = 3 * parent, p4 = 4 * parent;
+    float magnitude = _magnitude[parent];
+    _magnitude[index] = magnitude * _scaling[index];
+
+    float px = _orientation[p4], py = _orientation[p4 + 1], pz = _orientation[p4 + 2], pw = _orientation[p4 + 3];
+    float lx = _rotation[i4], ly = _rotation[i4 + 1], lz = _rotation[i4 + 2], lw = _rotation[i4 + 3];
+    // orientation = parent orientation * rotation
+    _orientation[i4] = pw * lx + lw * px + py * lz - pz * ly;
+    _orientation[i4 + 1] = pw * ly + lw * py - px * lz + pz * lx;
+    _orientation[i4 + 2] = pw * lz + lw * pz + px * ly - py * lx;
+    _orientation[i4 + 3] = pw * lw - px * lx - py * ly - pz * lz;
+
+    // position = parent position + parent orientation * (translation * parent magnitude)
+    float vx = _translation[i3] * magnitude, vy = _translation[i3 + 1] * magnitude, vz = _translation[i3 + 2] * magnitude;
+    float q00 = 2.0f * px * px, q11 = 2.0f * py * py, q22 = 2.0f * pz * pz;
+    float q01 = 2.0f * px * py, q02 = 2.0f * px * pz, q03 = 2.0f * px * pw;
+    float q12 = 2.0f * py * pz, q13 = 2.0f * py * pw, q23 = 2.0f * pz * pw;
+    _position[i3] = _position[p3] + (1.0f - q11 - q22) * vx + (q01 - q23) * vy + (q02 + q13) * vz;
+    _position[i3 + 1] = _position[p3 + 1] + (q01 + q23) * vx + (1.0f - q22 - q00) * vy + (q12 - q03) * vz;
+    _position[i3 + 2] = _position[p3 + 2] + (q02 - q13) * vx + (q12 + q03) * vy + (1.0f - q11 - q00) * vz;
+  }
+
+  /**
+   * Internal use. Mirrors the local transformation and reference of the backed
+   * {@code frame} into the store. Called by {@link Frame#_modified()}.
+   */
+  protected void _sync(Frame frame) {
+    int index = frame._storeIndex;
+    int i3 = 3 * index, i4 = 4 * index;
+    _translation[i3] = frame.translation()._vector[0];
+    _translation[i3 + 1] = frame.translation()._vector[1];
+    _translation[i3 + 2] = frame.translation()._vector[2];
+    _rotation[i4] = frame.rotation()._quaternion[0];
+    _rotation[i4 + 1] = frame.rotation()._quaternion[1];
+    _rotation[i4 + 2] = frame.rotation()._quaternion[2];
+    _rotation[i4 + 3] = frame.rotation()._quaternion[3];
+    _scaling[index] = frame.scaling();
+    int parent = -1;
+    if (frame.reference() != null) {
+      parent = add(frame.reference());
+      // Frame.setReference() rejects references backed by other stores
+      if (parent == -1) {
+        System.out.println("Warning: frame reference is backed by another store. Keeping the previous one");
+        parent = _parent[index];
+      }
+    }
+    if (_parent[index] != parent) {
+      if (parent > index || _order != null)
+        _ordered = false;
+      _linked = false;
+    }
+    _parent[index] = parent;
+    if (!_isModified[index]) {
+      _isModified[index] = true;
+      _modified[_modifiedSize++] = index;
+    }
+    _dirty = true;
+  }
+
+  /**
+   * Used by {@link #update()} to sort the store indices so that parents precede their
+   * children, which is only needed after a frame is re-parented to a frame added later.
+   */
+  protected void _sort() {
+    int[] depth = new int[_size];
+    int maxDepth = 0;
+    for (int i = 0; i < _size; i++) {
+      int d = 0;
+      for (int parent = _parent[i]; parent != -1; parent = _parent[parent])
+        d++;
+      depth[i] = d;
+      maxDepth = Math.max(maxDepth, d);
+    }
+    int[] count = new int[maxDepth + 2];
+    for (int i = 0; i < _size; i++)
+      count[depth[i] + 1]++;
+    for (int d = 1; d < count.length; d++)
+      count[d] += count[d - 1];
+    _order = new int[_size];
+    for (int i = 0; i < _size; i++)
+      _order[count[depth[i]]++] = i;
+    _ordered = true;
+  }
+
+  /**
+   * Used by {@link #add(Frame)} to grow the store arrays to {@code capacity}.
+   */
+  protected void _grow(int capacity) {
+    _frames = Arrays.copyOf(_frames, capacity);
+    _translation = Arrays.copyOf(_translation, 3 * capacity);
+    _rotation = Arrays.copyOf(_rotation, 4 * capacity);
+    _scaling = Arrays.copyOf(_scaling, capacity);
+    _parent = Arrays.copyOf(_parent, capacity);
+    _position = Arrays.copyOf(_position, 3 * capacity);
+    _orientation = Arrays.copyOf(_orientation, 4 * capacity);
+    _magnitude = Arrays.copyOf(_magnitude, capacity);
+    _modified = Arrays.copyOf(_modified, capacity);
+    _isModified = Arrays.copyOf(_isModified, capacity);
+    _child = Arrays.copyOf(_child, capacity);
+    _sibling = Arrays.copyOf(_sibling, capacity);
+  }
+}
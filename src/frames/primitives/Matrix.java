@@ -311,6 +311,18 @@ public class Matrix {
     set(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1);
   }
 
+  /**
+   * Returns {@code true} if the matrix is affine, i.e., if its last row is {@code (0, 0, 0, 1)}
+   * (as it is the case of the matrices representing frames, see {@code Frame.matrix()}), and
+   * {@code false} otherwise.
+   * <p>
+   * Products, inverses and determinants involving affine matrices are computed using
+   * specialized 3x4 code paths.
+   */
+  public boolean isAffine() {
+    return _matrix[3] == 0 && _matrix[7] == 0 && _matrix[11] == 0 && _matrix[15] == 1;
+  }
+
   /**
    * Returns a copy of this matrix.
    */
@@ -425,10 +437,41 @@ public class Matrix {
    */
   public void set(float m0, float m1, float m2, float m3, float m4, float m5, float m6, float m7, float m8,
                   float m9, float m10, float m11, float m12, float m13, float m14, float m15, boolean columnMajorOrder) {
-    set(new float[]{m0, m1, m2, m3,
-        m4, m5, m6, m7,
-        m8, m9, m10, m11,
-        m12, m13, m14, m15}, columnMajorOrder);
+    if (columnMajorOrder) {
+      _matrix[0] = m0;
+      _matrix[1] = m1;
+      _matrix[2] = m2;
+      _matrix[3] = m3;
+      _matrix[4] = m4;
+      _matrix[5] = m5;
+      _matrix[6] = m6;
+      _matrix[7] = m7;
+      _matrix[8] = m8;
+      _matrix[9] = m9;
+      _matrix[10] = m10;
+      _matrix[11] = m11;
+      _matrix[12] = m12;
+      _matrix[13] = m13;
+      _matrix[14] = m14;
+      _matrix[15] = m15;
+    } else {
+      _matrix[0] = m0;
+      _matrix[4] = m1;
+      _matrix[8] = m2;
+      _matrix[12] = m3;
+      _matrix[1] = m4;
+      _matrix[5] = m5;
+      _matrix[9] = m6;
+      _matrix[13] = m7;
+      _matrix[2] = m8;
+      _matrix[6] = m9;
+      _matrix[10] = m10;
+      _matrix[14] = m11;
+      _matrix[3] = m12;
+      _matrix[7] = m13;
+      _matrix[11] = m14;
+      _matrix[15] = m15;
+    }
   }
 
   /**
@@ -464,7 +507,7 @@ public class Matrix {
   public void rotateX(float angle) {
     float c = (float) Math.cos(angle);
     float s = (float) Math.sin(angle);
-    apply(new Matrix(1, 0, 0, 0, 0, c, s, 0, 0, -s, c, 0, 0, 0, 0, 1));
+    _applyLinear(1, 0, 0, 0, c, s, 0, -s, c);
   }
 
   /**
@@ -473,7 +516,7 @@ public class Matrix {
   public void rotateY(float angle) {
     float c = (float) Math.cos(angle);
     float s = (float) Math.sin(angle);
-    apply(new Matrix(c, 0, -s, 0, 0, 1, 0, 0, s, 0, c, 0, 0, 0, 0, 1));
+    _applyLinear(c, 0, -s, 0, 1, 0, s, 0, c);
   }
 
   /**
@@ -482,7 +525,7 @@ public class Matrix {
   public void rotateZ(float angle) {
     float c = (float) Math.cos(angle);
     float s = (float) Math.sin(angle);
-    apply(new Matrix(c, s, 0, 0, -s, c, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1));
+    _applyLinear(c, s, 0, -s, c, 0, 0, 0, 1);
   }
 
   /**
@@ -509,9 +552,9 @@ public class Matrix {
     float s = (float) Math.sin(angle);
     float t = 1.0f - c;
 
-    apply(new Matrix((t * v0 * v0) + c, (t * v0 * v1) + (s * v2), (t * v0 * v2) - (s * v1), 0, (t * v0 * v1) - (s * v2),
-        (t * v1 * v1) + c, (t * v1 * v2) + (s * v0), 0, (t * v0 * v2) + (s * v1), (t * v1 * v2) - (s * v0),
-        (t * v2 * v2) + c, 0, 0, 0, 0, 1));
+    _applyLinear((t * v0 * v0) + c, (t * v0 * v1) + (s * v2), (t * v0 * v2) - (s * v1), (t * v0 * v1) - (s * v2),
+        (t * v1 * v1) + c, (t * v1 * v2) + (s * v0), (t * v0 * v2) + (s * v1), (t * v1 * v2) - (s * v0),
+        (t * v2 * v2) + c);
   }
 
   /**
@@ -552,7 +595,7 @@ public class Matrix {
    */
   public void shearX(float angle) {
     float t = (float) Math.tan(angle);
-    apply(new Matrix(1, 0, 0, 0, t, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1));
+    _applyLinear(1, 0, 0, t, 1, 0, 0, 0, 1);
   }
 
   /**
@@ -560,13 +603,82 @@ public class Matrix {
    */
   public void shearY(float angle) {
     float t = (float) Math.tan(angle);
-    apply(new Matrix(1, t, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1));
+    _applyLinear(1, t, 0, 0, 1, 0, 0, 0, 1);
+  }
+
+  /**
+   * Multiply this matrix by the linear (upper-left 3x3) transformation given by its
+   * column-major {@code b00, b10, b20, b01, b11, b21, b02, b12, b22} entries. Used by
+   * the rotation and shearing methods to avoid instantiating the full 4x4 matrix.
+   */
+  protected void _applyLinear(float b00, float b10, float b20, float b01, float b11, float b21, float b02, float b12, float b22) {
+    for (int i = 0; i < 4; i++) {
+      float a0 = _matrix[i], a1 = _matrix[4 + i], a2 = _matrix[8 + i];
+      _matrix[i] = a0 * b00 + a1 * b10 + a2 * b20;
+      _matrix[4 + i] = a0 * b01 + a1 * b11 + a2 * b21;
+      _matrix[8 + i] = a0 * b02 + a1 * b12 + a2 * b22;
+    }
+  }
+
+  /**
+   * Defines {@code c} as {@code a x b}, where {@code b} is an affine matrix (see
+   * {@link #isAffine()}). Only the first {@code rows} rows of {@code c} are computed, the
+   * 4th one being set to {@code (0, 0, 0, 1)} when {@code rows} is 3, i.e., when {@code a} is
+   * also affine. Each row is read before it's written, so {@code c} may be {@code a}.
+   */
+  protected static void _multiplyAffine(float[] a, float[] b, float[] c, int rows) {
+    float b00 = b[0], b10 = b[1], b20 = b[2];
+    float b01 = b[4], b11 = b[5], b21 = b[6];
+    float b02 = b[8], b12 = b[9], b22 = b[10];
+    float b03 = b[12], b13 = b[13], b23 = b[14];
+
+    float a0 = a[0], a1 = a[4], a2 = a[8], a3 = a[12];
+    c[0] = a0 * b00 + a1 * b10 + a2 * b20;
+    c[4] = a0 * b01 + a1 * b11 + a2 * b21;
+    c[8] = a0 * b02 + a1 * b12 + a2 * b22;
+    c[12] = a0 * b03 + a1 * b13 + a2 * b23 + a3;
+
+    a0 = a[1];
+    a1 = a[5];
+    a2 = a[9];
+    a3 = a[13];
+    c[1] = a0 * b00 + a1 * b10 + a2 * b20;
+    c[5] = a0 * b01 + a1 * b11 + a2 * b21;
+    c[9] = a0 * b02 + a1 * b12 + a2 * b22;
+    c[13] = a0 * b03 + a1 * b13 + a2 * b23 + a3;
+
+    a0 = a[2];
+    a1 = a[6];
+    a2 = a[10];
+    a3 = a[14];
+    c[2] = a0 * b00 + a1 * b10 + a2 * b20;
+    c[6] = a0 * b01 + a1 * b11 + a2 * b21;
+    c[10] = a0 * b02 + a1 * b12 + a2 * b22;
+    c[14] = a0 * b03 + a1 * b13 + a2 * b23 + a3;
+
+    if (rows == 3) {
+      c[3] = c[7] = c[11] = 0;
+      c[15] = 1;
+      return;
+    }
+    a0 = a[3];
+    a1 = a[7];
+    a2 = a[11];
+    a3 = a[15];
+    c[3] = a0 * b00 + a1 * b10 + a2 * b20;
+    c[7] = a0 * b01 + a1 * b11 + a2 * b21;
+    c[11] = a0 * b02 + a1 * b12 + a2 * b22;
+    c[15] = a0 * b03 + a1 * b13 + a2 * b23 + a3;
   }
 
   /**
    * Multiply this matrix by {@code matrix}.
    */
   public void apply(Matrix matrix) {
+    if (matrix != this && matrix.isAffine()) {
+      _multiplyAffine(_matrix, matrix._matrix, _matrix, isAffine() ? 3 : 4);
+      return;
+    }
     float r00 = _matrix[0] * matrix._matrix[0] + _matrix[4] * matrix._matrix[1] + _matrix[8] * matrix._matrix[2] + _matrix[12] * matrix._matrix[3];
     float r01 = _matrix[0] * matrix._matrix[4] + _matrix[4] * matrix._matrix[5] + _matrix[8] * matrix._matrix[6] + _matrix[12] * matrix._matrix[7];
     float r02 = _matrix[0] * matrix._matrix[8] + _matrix[4] * matrix._matrix[9] + _matrix[8] * matrix._matrix[10] + _matrix[12] * matrix._matrix[11];
@@ -618,6 +730,10 @@ public class Matrix {
    * Define {@code c} as {@code a x b}.
    */
   public static void multiply(Matrix a, Matrix b, Matrix c) {
+    if (c != b && b.isAffine()) {
+      _multiplyAffine(a._matrix, b._matrix, c._matrix, a.isAffine() ? 3 : 4);
+      return;
+    }
     c._matrix[0] = a._matrix[0] * b._matrix[0] + a._matrix[4] * b._matrix[1] + a._matrix[8] * b._matrix[2] + a._matrix[12] * b._matrix[3];
     c._matrix[4] = a._matrix[0] * b._matrix[4] + a._matrix[4] * b._matrix[5] + a._matrix[8] * b._matrix[6] + a._matrix[12] * b._matrix[7];
     c._matrix[8] = a._matrix[0] * b._matrix[8] + a._matrix[4] * b._matrix[9] + a._matrix[8] * b._matrix[10] + a._matrix[12] * b._matrix[11];
@@ -678,6 +794,11 @@ public class Matrix {
       target[0] = _matrix[0] * source[0] + _matrix[4] * source[1] + _matrix[8] * source[2] + _matrix[12];
       target[1] = _matrix[1] * source[0] + _matrix[5] * source[1] + _matrix[9] * source[2] + _matrix[13];
       target[2] = _matrix[2] * source[0] + _matrix[6] * source[1] + _matrix[10] * source[2] + _matrix[14];
+    } else if (isAffine()) {
+      target[0] = _matrix[0] * source[0] + _matrix[4] * source[1] + _matrix[8] * source[2] + _matrix[12] * source[3];
+      target[1] = _matrix[1] * source[0] + _matrix[5] * source[1] + _matrix[9] * source[2] + _matrix[13] * source[3];
+      target[2] = _matrix[2] * source[0] + _matrix[6] * source[1] + _matrix[10] * source[2] + _matrix[14] * source[3];
+      target[3] = source[3];
     } else {
       target[0] = _matrix[0] * source[0] + _matrix[4] * source[1] + _matrix[8] * source[2] + _matrix[12] * source[3];
       target[1] = _matrix[1] * source[0] + _matrix[5] * source[1] + _matrix[9] * source[2] + _matrix[13] * source[3];
@@ -718,6 +839,8 @@ public class Matrix {
    * {@code matrix} should be non-null.
    */
   public boolean invert(Matrix matrix) {
+    if (isAffine())
+      return _invertAffine(matrix._matrix);
     float determinant = determinant();
     if (determinant == 0) {
       return false;
@@ -777,6 +900,8 @@ public class Matrix {
    * @return true if successful
    */
   public boolean invert() {
+    if (isAffine())
+      return _invertAffine(_matrix);
     float determinant = determinant();
     if (determinant == 0) {
       return false;
@@ -830,6 +955,58 @@ public class Matrix {
     return true;
   }
 
+  /**
+   * Inverts this affine matrix (see {@link #isAffine()}) into the {@code target} array,
+   * which may be this matrix array. The upper-left 3x3 block is inverted from its
+   * cofactors and the translation is then mapped by that inverse.
+   *
+   * @return true if successful
+   */
+  protected boolean _invertAffine(float[] target) {
+    float m00 = _matrix[0], m10 = _matrix[1], m20 = _matrix[2];
+    float m01 = _matrix[4], m11 = _matrix[5], m21 = _matrix[6];
+    float m02 = _matrix[8], m12 = _matrix[9], m22 = _matrix[10];
+    float t0 = _matrix[12], t1 = _matrix[13], t2 = _matrix[14];
+
+    float c00 = m11 * m22 - m12 * m21;
+    float c01 = m12 * m20 - m10 * m22;
+    float c02 = m10 * m21 - m11 * m20;
+    float determinant = m00 * c00 + m01 * c01 + m02 * c02;
+    if (determinant == 0) {
+      return false;
+    }
+    float inverse = 1 / determinant;
+
+    float i00 = c00 * inverse;
+    float i01 = (m02 * m21 - m01 * m22) * inverse;
+    float i02 = (m01 * m12 - m02 * m11) * inverse;
+    float i10 = c01 * inverse;
+    float i11 = (m00 * m22 - m02 * m20) * inverse;
+    float i12 = (m02 * m10 - m00 * m12) * inverse;
+    float i20 = c02 * inverse;
+    float i21 = (m01 * m20 - m00 * m21) * inverse;
+    float i22 = (m00 * m11 - m01 * m10) * inverse;
+
+    target[0] = i00;
+    target[1] = i10;
+    target[2] = i20;
+    target[3] = 0;
+    target[4] = i01;
+    target[5] = i11;
+    target[6] = i21;
+    target[7] = 0;
+    target[8] = i02;
+    target[9] = i12;
+    target[10] = i22;
+    target[11] = 0;
+    target[12] = -(i00 * t0 + i01 * t1 + i02 * t2);
+    target[13] = -(i10 * t0 + i11 * t1 + i12 * t2);
+    target[14] = -(i20 * t0 + i21 * t1 + i22 * t2);
+    target[15] = 1;
+
+    return true;
+  }
+
   /**
    * Calculate the determinant of a 3x3 matrix.
    *
@@ -844,6 +1021,8 @@ public class Matrix {
    * @return the determinant of the matrix
    */
   public float determinant() {
+    if (isAffine())
+      return _determinant3x3(_matrix[0], _matrix[4], _matrix[8], _matrix[1], _matrix[5], _matrix[9], _matrix[2], _matrix[6], _matrix[10]);
     float f = _matrix[0] * ((_matrix[5] * _matrix[10] * _matrix[15] + _matrix[9] * _matrix[14] * _matrix[7] + _matrix[13] * _matrix[6] * _matrix[11])
         - _matrix[13] * _matrix[10] * _matrix[7] - _matrix[5] * _matrix[14] * _matrix[11] - _matrix[9] * _matrix[6] * _matrix[15]);
     f -= _matrix[4] * ((_matrix[1] * _matrix[10] * _matrix[15] + _matrix[9] * _matrix[14] * _matrix[3] + _matrix[13] * _matrix[2] * _matrix[11])
@@ -442,12 +442,40 @@ public class Quaternion {
    * @param b the second Quaternion
    */
   public static Quaternion multiply(Quaternion a, Quaternion b) {
+    return multiply(a, b, null);
+  }
+
+  /**
+   * Same as {@code return multiply(a, b, target)}.
+   *
+   * @see #multiply(Quaternion, Quaternion, Quaternion)
+   */
+  public static Quaternion compose(Quaternion a, Quaternion b, Quaternion target) {
+    return multiply(a, b, target);
+  }
+
+  /**
+   * Stores the product of quaternions {@code a} and {@code b} into {@code target} (if null,
+   * a new quaternion will be created) which is then returned. {@code target} may be either
+   * {@code a} or {@code b}.
+   *
+   * @param a      the first Quaternion
+   * @param b      the second Quaternion
+   * @param target the Quaternion in which to store the result
+   */
+  public static Quaternion multiply(Quaternion a, Quaternion b, Quaternion target) {
     float x, y, z, w;
     w = a._quaternion[3] * b._quaternion[3] - a._quaternion[0] * b._quaternion[0] - a._quaternion[1] * b._quaternion[1] - a._quaternion[2] * b._quaternion[2];
     x = a._quaternion[3] * b._quaternion[0] + b._quaternion[3] * a._quaternion[0] + a._quaternion[1] * b._quaternion[2] - a._quaternion[2] * b._quaternion[1];
     y = a._quaternion[3] * b._quaternion[1] + b._quaternion[3] * a._quaternion[1] - a._quaternion[0] * b._quaternion[2] + a._quaternion[2] * b._quaternion[0];
     z = a._quaternion[3] * b._quaternion[2] + b._quaternion[3] * a._quaternion[2] + a._quaternion[0] * b._quaternion[1] - a._quaternion[1] * b._quaternion[0];
-    return new Quaternion(x, y, z, w);
+    if (target == null)
+      return new Quaternion(x, y, z, w);
+    target._quaternion[0] = x;
+    target._quaternion[1] = y;
+    target._quaternion[2] = z;
+    target._quaternion[3] = w;
+    return target;
   }
 
   /**
@@ -568,22 +596,19 @@ public class Quaternion {
    * @param vector the Vector
    */
   public Vector rotate(Vector vector) {
-    float q00 = 2.0f * this._quaternion[0] * this._quaternion[0];
-    float q11 = 2.0f * this._quaternion[1] * this._quaternion[1];
-    float q22 = 2.0f * this._quaternion[2] * this._quaternion[2];
-
-    float q01 = 2.0f * this._quaternion[0] * this._quaternion[1];
-    float q02 = 2.0f * this._quaternion[0] * this._quaternion[2];
-    float q03 = 2.0f * this._quaternion[0] * this._quaternion[3];
-
-    float q12 = 2.0f * this._quaternion[1] * this._quaternion[2];
-    float q13 = 2.0f * this._quaternion[1] * this._quaternion[3];
-
-    float q23 = 2.0f * this._quaternion[2] * this._quaternion[3];
+    return rotate(vector, null);
+  }
 
-    return new Vector((1.0f - q11 - q22) * vector._vector[0] + (q01 - q23) * vector._vector[1] + (q02 + q13) * vector._vector[2],
-        (q01 + q23) * vector._vector[0] + (1.0f - q22 - q00) * vector._vector[1] + (q12 - q03) * vector._vector[2],
-        (q02 - q13) * vector._vector[0] + (q12 + q03) * vector._vector[1] + (1.0f - q11 - q00) * vector._vector[2]);
+  /**
+   * Stores the image of {@code vector} by the quaternion rotation into {@code target} (if
+   * null, a new vector will be created) which is then returned. {@code target} may be
+   * {@code vector}.
+   *
+   * @param vector the Vector
+   * @param target the Vector in which to store the result
+   */
+  public Vector rotate(Vector vector, Vector target) {
+    return _rotate(this._quaternion[0], this._quaternion[1], this._quaternion[2], this._quaternion[3], vector, target);
   }
 
   /**
@@ -594,9 +619,51 @@ public class Quaternion {
    * @param vector the Vector
    */
   public Vector inverseRotate(Vector vector) {
-    Quaternion tempQuaternion = new Quaternion(this._quaternion[0], this._quaternion[1], this._quaternion[2], this._quaternion[3]);
-    tempQuaternion.invert();
-    return tempQuaternion.rotate(vector);
+    return inverseRotate(vector, null);
+  }
+
+  /**
+   * Stores the image of {@code vector} by the quaternion {@link #inverse()} rotation into
+   * {@code target} (if null, a new vector will be created) which is then returned.
+   * {@code target} may be {@code vector}.
+   * <p>
+   * {@link #rotate(Vector, Vector)} performs an inverse transformation.
+   *
+   * @param vector the Vector
+   * @param target the Vector in which to store the result
+   */
+  public Vector inverseRotate(Vector vector, Vector target) {
+    float sqNorm = squaredNorm(this);
+    return _rotate(-this._quaternion[0] / sqNorm, -this._quaternion[1] / sqNorm, -this._quaternion[2] / sqNorm, this._quaternion[3] / sqNorm, vector, target);
+  }
+
+  /**
+   * Used by {@link #rotate(Vector, Vector)} and {@link #inverseRotate(Vector, Vector)}.
+   */
+  protected static Vector _rotate(float x, float y, float z, float w, Vector vector, Vector target) {
+    float q00 = 2.0f * x * x;
+    float q11 = 2.0f * y * y;
+    float q22 = 2.0f * z * z;
+
+    float q01 = 2.0f * x * y;
+    float q02 = 2.0f * x * z;
+    float q03 = 2.0f * x * w;
+
+    float q12 = 2.0f * y * z;
+    float q13 = 2.0f * y * w;
+
+    float q23 = 2.0f * z * w;
+
+    float vx = vector._vector[0];
+    float vy = vector._vector[1];
+    float vz = vector._vector[2];
+
+    if (target == null)
+      target = new Vector();
+    target.set((1.0f - q11 - q22) * vx + (q01 - q23) * vy + (q02 + q13) * vz,
+        (q01 + q23) * vx + (1.0f - q22 - q00) * vy + (q12 - q03) * vz,
+        (q02 - q13) * vx + (q12 + q03) * vy + (1.0f - q11 - q00) * vz);
+    return target;
   }
 
   /**
@@ -857,11 +924,23 @@ public class Quaternion {
    * @see #angle()
    */
   public Vector axis() {
-    Vector axis = new Vector(x(), y(), z());
-    float sinus = axis.magnitude();
+    return axis(null);
+  }
+
+  /**
+   * Stores the normalized {@link #axis()} of the rotation into {@code target} (if null, a
+   * new vector will be created) which is then returned.
+   *
+   * @see #axis()
+   */
+  public Vector axis(Vector target) {
+    if (target == null)
+      target = new Vector();
+    target.set(x(), y(), z());
+    float sinus = target.magnitude();
     if (sinus != 0)
-      axis.divide(sinus);
-    return axis;
+      target.divide(sinus);
+    return target;
   }
 
   /**
@@ -882,7 +961,7 @@ public class Quaternion {
    * @see #angle()
    */
   public float angle2D() {
-    return axis()._vector[2] > 0 ? angle() : -angle();
+    return z() > 0 ? angle() : -angle();
   }
 
   /**
@@ -998,8 +1077,26 @@ public class Quaternion {
    * @param b         the second Quaternion
    * @param t         the t interpolation parameter
    * @param allowFlip tells whether or not the interpolation allows axis flip
+   * @see #slerp(Quaternion, Quaternion, float, boolean, Quaternion)
    */
   public static Quaternion slerp(Quaternion a, Quaternion b, float t, boolean allowFlip) {
+    return slerp(a, b, t, allowFlip, null);
+  }
+
+  /**
+   * Stores the slerp interpolation of quaternions {@code a} and {@code b}, at time
+   * {@code t}, into {@code target} (if null, a new quaternion will be created) which is
+   * then returned. {@code target} may be either {@code a} or {@code b}.
+   * <p>
+   * See {@link #slerp(Quaternion, Quaternion, float, boolean)} for details.
+   *
+   * @param a         the first Quaternion
+   * @param b         the second Quaternion
+   * @param t         the t interpolation parameter
+   * @param allowFlip tells whether or not the interpolation allows axis flip
+   * @param target    the Quaternion in which to store the result
+   */
+  public static Quaternion slerp(Quaternion a, Quaternion b, float t, boolean allowFlip, Quaternion target) {
     // Warning: this method should not normalize the Quaternion
     float cosAngle = Quaternion.dot(a, b);
 
@@ -1020,8 +1117,17 @@ public class Quaternion {
     if (allowFlip && (cosAngle < 0.0))
       c1 = -c1;
 
-    return new Quaternion(c1 * a._quaternion[0] + c2 * b._quaternion[0], c1 * a._quaternion[1] + c2 * b._quaternion[1], c1 * a._quaternion[2] + c2 * b._quaternion[2],
-        c1 * a._quaternion[3] + c2 * b._quaternion[3], false);
+    float x = c1 * a._quaternion[0] + c2 * b._quaternion[0];
+    float y = c1 * a._quaternion[1] + c2 * b._quaternion[1];
+    float z = c1 * a._quaternion[2] + c2 * b._quaternion[2];
+    float w = c1 * a._quaternion[3] + c2 * b._quaternion[3];
+    if (target == null)
+      return new Quaternion(x, y, z, w, false);
+    target._quaternion[0] = x;
+    target._quaternion[1] = y;
+    target._quaternion[2] = z;
+    target._quaternion[3] = w;
+    return target;
   }
 
   /**
@@ -23,6 +23,9 @@ import processing.core.PMatrix2D;
  */
 public class Java2DMatrixHandler extends MatrixHandler {
   protected PGraphics _pgraphics;
+  // eye position and orientation scratches
+  protected Vector _position = new Vector();
+  protected Quaternion _orientation = new Quaternion();
 
   public Java2DMatrixHandler(Graph graph, PGraphics renderer) {
     super(graph);
@@ -41,11 +44,9 @@ public class Java2DMatrixHandler extends MatrixHandler {
 
   @Override
   protected void _bind() {
-    _projection.set(graph().eye().projection(graph().type(), graph().width(), graph().height(), graph().zNear(), graph().zFar(), graph().isLeftHanded()));
-    _view.set(graph().eye().view());
-    _cacheProjectionView(Matrix.multiply(cacheProjection(), cacheView()));
-    Vector pos = _graph.eye().position();
-    Quaternion o = _graph.eye().orientation();
+    _validateCache();
+    Vector pos = _graph.eye().position(_position);
+    Quaternion o = _graph.eye().orientation(_orientation);
     translate(_graph.width() / 2, _graph.height() / 2);
     scale(1 / _graph.eye().magnitude(), (_graph.isRightHanded() ? -1 : 1) / _graph.eye().magnitude());
     rotate(-o.angle2D());
@@ -59,8 +60,8 @@ public class Java2DMatrixHandler extends MatrixHandler {
 
   @Override
   public void beginHUD() {
-    Vector pos = _graph.eye().position();
-    Quaternion o = _graph.eye().orientation();
+    Vector pos = _graph.eye().position(_position);
+    Quaternion o = _graph.eye().orientation(_orientation);
     pushModelView();
     translate(pos.x(), pos.y());
     rotate(o.angle2D());
@@ -10,38 +10,124 @@
 
 package frames.processing;
 
+import frames.timing.ConcurrentTaskable;
 import frames.timing.Taskable;
 import frames.timing.Timer;
+import frames.timing.TimingHandler;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Parrallel timer based on java.util.Timer and java.util.TimerTask.
+ * Parallel timer scheduled on a thread pool shared by all parallel timers, so that
+ * thousands of them may run concurrently.
+ * <p>
+ * Results are handed to the render thread through the timing handler completion queue
+ * (see {@link TimingHandler#post(Runnable)}): the {@link ConcurrentTaskable#execute()}
+ * method of concurrent tasks is run on a pool thread and their
+ * {@link ConcurrentTaskable#complete()} method on the render thread, while plain tasks
+ * are entirely run on the render thread. At most one completion per timer is pending at
+ * any time, i.e., ticks are dropped while the render thread lags behind.
  */
 class ParallelTimer implements Timer {
-  java.util.Timer _timer;
-  java.util.TimerTask _timerTask;
+  static ScheduledThreadPoolExecutor _executor;
+  TimingHandler _handler;
+  ScheduledFuture<?> _future;
+  Runnable _tick;
+  Runnable _completion;
+  AtomicBoolean _pending;
   Taskable _task;
   boolean _once;
-  boolean _active;
+  volatile boolean _active;
+  // run generation, bumped by stop(), and the one of the pending completion
+  volatile int _generation;
+  volatile int _pendingGeneration;
   long _period;
 
   /**
-   * Same as {@code this(task, false)}.
+   * Same as {@code this(handler, task, false)}.
    *
-   * @see #ParallelTimer(Taskable, boolean)
+   * @see #ParallelTimer(TimingHandler, Taskable, boolean)
    */
-  public ParallelTimer(Taskable task) {
-    this(task, false);
+  public ParallelTimer(TimingHandler handler, Taskable task) {
+    this(handler, task, false);
   }
 
   /**
    * Defines a parallel (multi-threaded) timer.
    *
+   * @param handler    timing handler whose {@link TimingHandler#handle()} runs the completions
    * @param task
    * @param singleShot
    */
-  public ParallelTimer(Taskable task, boolean singleShot) {
+  public ParallelTimer(TimingHandler handler, Taskable task, boolean singleShot) {
+    _handler = handler;
     _once = singleShot;
     _task = task;
+    _pending = new AtomicBoolean();
+    _tick = new Runnable() {
+      public void run() {
+        _tick();
+      }
+    };
+    _completion = new Runnable() {
+      public void run() {
+        _complete();
+      }
+    };
+  }
+
+  /**
+   * Returns the thread pool shared by all parallel timers, which is lazily created with
+   * as many (daemon) threads as available processors.
+   */
+  static synchronized ScheduledThreadPoolExecutor _executor() {
+    if (_executor == null) {
+      _executor = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        AtomicInteger _count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "frames-timer-" + _count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      _executor.setRemoveOnCancelPolicy(true);
+    }
+    return _executor;
+  }
+
+  /**
+   * Run on a pool thread every period.
+   */
+  void _tick() {
+    int generation = _generation;
+    if (!_active || !_pending.compareAndSet(false, true))
+      return;
+    if (_task instanceof ConcurrentTaskable)
+      _task.execute();
+    _pendingGeneration = generation;
+    _handler.post(_completion);
+  }
+
+  /**
+   * Run on the render thread by the timing handler.
+   */
+  void _complete() {
+    _pending.set(false);
+    // drop completions issued before the timer was last stopped
+    if (!_active || _pendingGeneration != _generation)
+      return;
+    if (_once)
+      _active = false;
+    if (_task instanceof ConcurrentTaskable)
+      ((ConcurrentTaskable) _task).complete();
+    else
+      _task.execute();
   }
 
   @Override
@@ -52,12 +138,6 @@ class ParallelTimer implements Timer {
   @Override
   public void create() {
     stop();
-    _timer = new java.util.Timer();
-    _timerTask = new java.util.TimerTask() {
-      public void run() {
-        _task.execute();
-      }
-    };
   }
 
   @Override
@@ -69,11 +149,13 @@ class ParallelTimer implements Timer {
   @Override
   public void run() {
     create();
+    if (_period <= 0)
+      return;
+    _active = true;
     if (isSingleShot())
-      _timer.schedule(_timerTask, _period);
+      _future = _executor().schedule(_tick, _period, TimeUnit.MILLISECONDS);
     else
-      _timer.scheduleAtFixedRate(_timerTask, 0, _period);
-    _active = true;
+      _future = _executor().scheduleAtFixedRate(_tick, 0, _period, TimeUnit.MILLISECONDS);
   }
 
   @Override
@@ -83,16 +165,17 @@ class ParallelTimer implements Timer {
 
   @Override
   public void stop() {
-    if (_timer != null) {
-      _timer.cancel();
-      _timer.purge();
-    }
     _active = false;
+    _generation++;
+    if (_future != null) {
+      _future.cancel(false);
+      _future = null;
+    }
   }
 
   @Override
   public boolean isActive() {
-    return _timer != null && _active;
+    return _future != null && _active;
   }
 
   @Override
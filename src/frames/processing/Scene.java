@@ -13,6 +13,7 @@
 
 package frames.processing;
 
+import frames.core.BoundingVolumeHierarchy;
 import frames.core.Frame;
 import frames.core.Graph;
 import frames.core.Interpolator;
@@ -22,6 +23,7 @@ import frames.primitives.Point;
 import frames.primitives.Quaternion;
 import frames.primitives.Vector;
 import frames.timing.SequentialTimer;
+import frames.timing.TimingHandler;
 import frames.timing.TimingTask;
 import processing.core.*;
 import processing.data.JSONArray;
@@ -31,8 +33,13 @@ import processing.opengl.PGraphics3D;
 import processing.opengl.PGraphicsOpenGL;
 import processing.opengl.PShader;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -152,6 +159,44 @@ public class Scene extends Graph implements PConstants {
   protected boolean _bbEnabled;
   protected PShader _triangleShader, _lineShader, _pointShader;
 
+  // ray picking
+  protected boolean _rayPicking;
+  protected BoundingVolumeHierarchy _bvh;
+  protected ArrayList<Frame> _bvhFrames, _rayFrames;
+  protected long _bvhUpdate = -1;
+  protected Vector _rayOrigin, _rayDirection;
+  protected float[] _rayX, _rayY;
+  protected Frame[] _rayResult;
+  protected int _rayCount;
+
+  // on-demand picking
+  protected boolean _onDemandPicking;
+  protected ArrayList<Tuple> _pickTuples;
+  protected HashMap<Integer, Frame> _pickFrames;
+  protected ByteBuffer _pickBuffer;
+  protected int _pickX, _pickY, _pickWidth, _pickHeight;
+  protected long _pickUpdate = -1;
+  /**
+   * Number of pixels rendered around each queried pixel when picking on demand.
+   *
+   * @see #enableOnDemandPicking(boolean)
+   */
+  public static int PICKING_MARGIN = 2;
+
+  // asynchronous picking
+  protected boolean _asyncPicking;
+  protected IntBuffer _pbo;
+  protected int _pboWidth, _pboHeight, _pboWrite, _pboPending = -1;
+  protected ByteBuffer _pboPixels;
+  protected boolean _pboPixelsValid;
+
+  // interpolator path drawing
+  protected float[] _pathSample = new float[Interpolator.SAMPLE_STRIDE];
+
+  // retained mode branches, see enableRetainedMode(Frame)
+  protected HashMap<Frame, Retained> _retained;
+  protected float[] _recordMatrix = new float[16];
+
   // CONSTRUCTORS
 
   /**
@@ -282,6 +327,9 @@ public class Scene extends Graph implements PConstants {
     _bb = (frontBuffer() instanceof processing.opengl.PGraphicsOpenGL) ?
         pApplet().createGraphics(frontBuffer().width, frontBuffer().height, frontBuffer() instanceof PGraphics3D ? P3D : P2D) :
         null;
+    // antialiasing would blend the frame ids
+    if (_bb != null)
+      _bb.noSmooth();
     return _bb != null;
   }
 
@@ -344,16 +392,432 @@ public class Scene extends Graph implements PConstants {
    * scenes).
    */
   protected void _renderBackBuffer() {
-    if (_bb == null || !_bbEnabled)
+    if (_bb == null || !_bbEnabled || isRayPickingEnabled())
       return;
+    long start = System.nanoTime();
+    if (isOnDemandPickingEnabled())
+      _resolvePickTuples();
+    else {
+      backBuffer().beginDraw();
+      backBuffer().pushStyle();
+      backBuffer().background(0);
+      traverse(backBuffer());
+      backBuffer().popStyle();
+      if (isAsynchronousPickingEnabled()) {
+        backBuffer().flush();
+        _readBackBuffer();
+        backBuffer().endDraw();
+      } else {
+        backBuffer().endDraw();
+        // if (frames().size() > 0)
+        backBuffer().loadPixels();
+      }
+    }
+    timingHandler().profile(TimingHandler.Phase.BACK_BUFFER, start);
+  }
+
+  /**
+   * Disables asynchronous picking.
+   *
+   * @see #enableAsynchronousPicking(boolean)
+   */
+  public void disableAsynchronousPicking() {
+    enableAsynchronousPicking(false);
+  }
+
+  /**
+   * Enables asynchronous picking.
+   *
+   * @see #enableAsynchronousPicking(boolean)
+   */
+  public void enableAsynchronousPicking() {
+    enableAsynchronousPicking(true);
+  }
+
+  /**
+   * Enables or disables asynchronous picking according to {@code flag}. Disabled by default.
+   * Only meaningful if the scene has a {@link #backBuffer()}.
+   * <p>
+   * When enabled, the {@link #backBuffer()} rendered at the end of frame {@code N} isn't read
+   * back with a blocking {@code loadPixels()}. It's instead asynchronously transferred into
+   * one of two pixel buffer objects (which are used in turns) and only mapped when frame
+   * {@code N + 1} picking queries need it (e.g., those issued with {@code cast()}), so that
+   * the transfer overlaps with the rendering of frame {@code N + 1} and doesn't stall the GL
+   * pipeline. Note that the picking results are the same as without asynchronous picking,
+   * since the back buffer of the previous frame is always used.
+   * <p>
+   * Ray picking and on-demand picking take precedence over asynchronous picking
+   * (see {@link #enableRayPicking(boolean)} and {@link #enableOnDemandPicking(boolean)}).
+   *
+   * @see #isAsynchronousPickingEnabled()
+   */
+  public void enableAsynchronousPicking(boolean flag) {
+    if (flag && _bb == null)
+      System.out.println("Warning: asynchronous picking requires a back buffer. See enableBackBuffer()");
+    _asyncPicking = flag;
+    _pboPending = -1;
+    _pboPixelsValid = false;
+  }
+
+  /**
+   * Returns {@code true} if asynchronous picking is enabled and {@code false} otherwise.
+   *
+   * @see #enableAsynchronousPicking(boolean)
+   */
+  public boolean isAsynchronousPickingEnabled() {
+    return _asyncPicking;
+  }
+
+  /**
+   * Used by {@link #_renderBackBuffer()} when {@link #isAsynchronousPickingEnabled()}.
+   * Issues the (non-blocking) transfer of the {@link #backBuffer()} pixels into the
+   * current pixel buffer object, which is then swapped.
+   */
+  protected void _readBackBuffer() {
+    PGL pgl = backBuffer().beginPGL();
+    int width = backBuffer().width, height = backBuffer().height;
+    if (_pbo == null || _pboWidth != width || _pboHeight != height) {
+      if (_pbo != null)
+        pgl.deleteBuffers(2, _pbo);
+      _pbo = IntBuffer.allocate(2);
+      pgl.genBuffers(2, _pbo);
+      for (int i = 0; i < 2; i++) {
+        pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, _pbo.get(i));
+        pgl.bufferData(PGL.PIXEL_PACK_BUFFER, 4 * width * height, null, PGL.STREAM_READ);
+      }
+      _pboWidth = width;
+      _pboHeight = height;
+      _pboPixels = ByteBuffer.allocateDirect(4 * width * height).order(ByteOrder.nativeOrder());
+      _pboPixelsValid = false;
+    }
+    pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, _pbo.get(_pboWrite));
+    // with a pixel pack buffer bound the transfer doesn't block
+    pgl.readPixels(0, 0, width, height, PGL.RGBA, PGL.UNSIGNED_BYTE, 0);
+    pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, 0);
+    backBuffer().endPGL();
+    _pboPending = _pboWrite;
+    _pboWrite = 1 - _pboWrite;
+  }
+
+  /**
+   * Returns the frame id of the last asynchronously read {@link #backBuffer()} at pixel
+   * {@code (x, y)}, mapping the pending pixel buffer object if needed. Returns {@code 0}
+   * if the pixel is outside the buffer or if no pixels have been read yet.
+   *
+   * @see #enableAsynchronousPicking(boolean)
+   */
+  protected int _asyncPickId(float x, float y) {
+    if (_pboPending != -1) {
+      PGL pgl = backBuffer().beginPGL();
+      pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, _pbo.get(_pboPending));
+      ByteBuffer pixels = pgl.mapBuffer(PGL.PIXEL_PACK_BUFFER, PGL.READ_ONLY);
+      if (pixels != null) {
+        _pboPixels.clear();
+        _pboPixels.put(pixels);
+        _pboPixelsValid = true;
+        pgl.unmapBuffer(PGL.PIXEL_PACK_BUFFER);
+      }
+      pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, 0);
+      backBuffer().endPGL();
+      _pboPending = -1;
+    }
+    if (!_pboPixelsValid || x < 0 || y < 0 || (int) x >= _pboWidth || (int) y >= _pboHeight)
+      return 0;
+    // GL rows are bottom-up
+    return _id(_pboPixels, 4 * ((_pboHeight - 1 - (int) y) * _pboWidth + (int) x));
+  }
+
+  /**
+   * Returns the frame id (see {@link Frame#id()}) encoded by the {@code RGBA} pixel starting
+   * at {@code index} in the {@code pixels} read back from the {@link #backBuffer()}. Used by
+   * both {@link #_pickId(float, float)} and {@link #_asyncPickId(float, float)}.
+   */
+  protected static int _id(ByteBuffer pixels, int index) {
+    return (255 << 24) | ((pixels.get(index) & 255) << 16) | ((pixels.get(index + 1) & 255) << 8) | (pixels.get(index + 2) & 255);
+  }
+
+  /**
+   * Disables on-demand picking.
+   *
+   * @see #enableOnDemandPicking(boolean)
+   */
+  public void disableOnDemandPicking() {
+    enableOnDemandPicking(false);
+  }
+
+  /**
+   * Enables on-demand picking.
+   *
+   * @see #enableOnDemandPicking(boolean)
+   */
+  public void enableOnDemandPicking() {
+    enableOnDemandPicking(true);
+  }
+
+  /**
+   * Enables or disables on-demand picking according to {@code flag}. Disabled by default.
+   * Only meaningful if the scene has a {@link #backBuffer()}.
+   * <p>
+   * By default the whole {@link #backBuffer()} is rendered and read back every frame as
+   * soon as a frame has a {@link Frame.Precision#EXACT} precision. When on-demand picking
+   * is enabled, the back buffer is only rendered when a picking query is pending, i.e.,
+   * at the end of the frame when {@code cast()} requests were issued, or when
+   * {@code track()} is called. The rendering is restricted (with a scissor test) to a
+   * small region around the queried pixels (see {@link #PICKING_MARGIN}) and only that
+   * region is read back.
+   * <p>
+   * Note that {@code cast()} requests for {@link Frame.Precision#EXACT} frames are
+   * resolved at the end of the frame (see {@link #draw()} and {@link #endDraw()}), and
+   * that ray picking takes precedence over on-demand picking
+   * (see {@link #enableRayPicking(boolean)}).
+   *
+   * @see #isOnDemandPickingEnabled()
+   */
+  public void enableOnDemandPicking(boolean flag) {
+    if (flag && _bb == null)
+      System.out.println("Warning: on-demand picking requires a back buffer. See enableBackBuffer()");
+    _onDemandPicking = flag;
+    if (flag && _pickTuples == null) {
+      _pickTuples = new ArrayList<Tuple>();
+      _pickFrames = new HashMap<Integer, Frame>();
+    }
+    _pickUpdate = -1;
+  }
+
+  /**
+   * Returns {@code true} if on-demand picking is enabled and {@code false} otherwise.
+   *
+   * @see #enableOnDemandPicking(boolean)
+   */
+  public boolean isOnDemandPickingEnabled() {
+    return _onDemandPicking;
+  }
+
+  /**
+   * Returns {@code true} if {@link Frame.Precision#EXACT} frames are currently picked
+   * on demand from the {@link #backBuffer()}.
+   *
+   * @see #enableOnDemandPicking(boolean)
+   */
+  protected boolean _isPickingOnDemand() {
+    return _onDemandPicking && !_rayPicking && _bb != null && _bbEnabled;
+  }
+
+  /**
+   * Used by {@link #_renderBackBuffer()}. Resolves the {@code cast()} requests that weren't
+   * resolved during the traversal, by rendering the {@link #backBuffer()} region enclosing
+   * all their pixels.
+   */
+  protected void _resolvePickTuples() {
+    if (_pickTuples.isEmpty())
+      return;
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (Tuple tuple : _pickTuples) {
+      minX = Math.min(minX, tuple._pixel.x());
+      minY = Math.min(minY, tuple._pixel.y());
+      maxX = Math.max(maxX, tuple._pixel.x());
+      maxY = Math.max(maxY, tuple._pixel.y());
+    }
+    _renderBackBuffer((int) minX - PICKING_MARGIN, (int) minY - PICKING_MARGIN,
+        (int) maxX - (int) minX + 2 * PICKING_MARGIN + 1, (int) maxY - (int) minY + 2 * PICKING_MARGIN + 1);
+    for (Tuple tuple : _pickTuples)
+      if (trackedFrame(tuple._hid) == null) {
+        Frame frame = _pickFrames.get(_pickId(tuple._pixel.x(), tuple._pixel.y()));
+        if (frame != null && frame.isTrackingEnabled())
+          setTrackedFrame(tuple._hid, frame);
+      }
+    _pickTuples.clear();
+  }
+
+  /**
+   * Renders the {@link #backBuffer()} restricted to the given screen region (clipped to the
+   * buffer size) and reads back only that region. Used when picking on demand.
+   *
+   * @see #enableOnDemandPicking(boolean)
+   */
+  protected void _renderBackBuffer(int x, int y, int width, int height) {
+    _pickX = Math.max(0, x);
+    _pickY = Math.max(0, y);
+    _pickWidth = Math.min(backBuffer().width, x + width) - _pickX;
+    _pickHeight = Math.min(backBuffer().height, y + height) - _pickY;
+    _pickUpdate = TimingHandler.frameCount;
+    _pickFrames.clear();
+    if (_pickWidth <= 0 || _pickHeight <= 0)
+      return;
+    if (_pickBuffer == null || _pickBuffer.capacity() < 4 * _pickWidth * _pickHeight)
+      _pickBuffer = ByteBuffer.allocateDirect(4 * _pickWidth * _pickHeight).order(ByteOrder.nativeOrder());
+    // GL rows are bottom-up
+    int glY = backBuffer().height - _pickY - _pickHeight;
     backBuffer().beginDraw();
+    PGL pgl = backBuffer().beginPGL();
+    pgl.enable(PGL.SCISSOR_TEST);
+    pgl.scissor(_pickX, glY, _pickWidth, _pickHeight);
+    backBuffer().endPGL();
     backBuffer().pushStyle();
     backBuffer().background(0);
-    traverse(backBuffer());
+    _visitBackBuffer();
     backBuffer().popStyle();
+    backBuffer().flush();
+    pgl = backBuffer().beginPGL();
+    _pickBuffer.clear();
+    pgl.readPixels(_pickX, glY, _pickWidth, _pickHeight, PGL.RGBA, PGL.UNSIGNED_BYTE, _pickBuffer);
+    pgl.disable(PGL.SCISSOR_TEST);
+    backBuffer().endPGL();
     backBuffer().endDraw();
-    // if (frames().size() > 0)
-    backBuffer().loadPixels();
+  }
+
+  /**
+   * Used by {@link #_renderBackBuffer(int, int, int, int)}. Visits the frames into the
+   * {@link #backBuffer()} from the eye point of view. Unlike {@code traverse(backBuffer())}
+   * it doesn't go through {@link Graph#traverse()}, so that it may be called while tracking
+   * (e.g., from {@code track()}) without discarding the pending {@code cast()} requests nor
+   * rebuilding the tracking index.
+   */
+  protected void _visitBackBuffer() {
+    PGraphics pGraphics = _targetPGraphics;
+    _targetPGraphics = backBuffer();
+    MatrixHandler matrixHandler = matrixHandler(backBuffer());
+    matrixHandler._bindProjection(matrixHandler().projection());
+    matrixHandler._bindModelView(matrixHandler().cacheView());
+    for (Frame frame : _leadingFrames())
+      _visit(frame);
+    _targetPGraphics = pGraphics;
+  }
+
+  /**
+   * Returns the frame id rendered at pixel {@code (x, y)} by the last region-limited
+   * {@link #backBuffer()} rendering, or {@code 0} if the pixel lies outside that region.
+   */
+  protected int _pickId(float x, float y) {
+    if (!_isInPickRegion(x, y))
+      return 0;
+    return _id(_pickBuffer, 4 * ((_pickY + _pickHeight - 1 - (int) y) * _pickWidth + (int) x - _pickX));
+  }
+
+  /**
+   * Returns {@code true} if pixel {@code (x, y)} lies within the last region-limited
+   * {@link #backBuffer()} rendering and {@code false} otherwise.
+   */
+  protected boolean _isInPickRegion(float x, float y) {
+    return _pickX <= (int) x && (int) x < _pickX + _pickWidth && _pickY <= (int) y && (int) y < _pickY + _pickHeight;
+  }
+
+  /**
+   * Disables ray picking.
+   *
+   * @see #enableRayPicking(boolean)
+   */
+  public void disableRayPicking() {
+    enableRayPicking(false);
+  }
+
+  /**
+   * Enables ray picking.
+   *
+   * @see #enableRayPicking(boolean)
+   */
+  public void enableRayPicking() {
+    enableRayPicking(true);
+  }
+
+  /**
+   * Enables or disables ray picking according to {@code flag}. Disabled by default.
+   * <p>
+   * When enabled, the frames having a {@link Frame.Precision#EXACT} precision are picked
+   * on the CPU, by casting the ray defined by the pointer pixel (see
+   * {@link #convertClickToLine(Point, Vector, Vector)}) against a world space
+   * {@link BoundingVolumeHierarchy} of their bounding volumes (see
+   * {@link Frame#setBoundingBall(Vector, float)} and
+   * {@link Frame#setBoundingBox(Vector, Vector)}), and the frame closest to the eye is
+   * picked. The {@link #backBuffer()} is then neither rendered nor read back. Note that
+   * {@link Shape}s set from a {@code PShape} get their bounding box automatically
+   * computed, but immediate mode shapes should set their bounding volume explicitly,
+   * otherwise they can't be picked.
+   * <p>
+   * The hierarchy is rebuilt (when the set of pickable frames changes) or refitted at
+   * most once per frame, when a picking query is issued.
+   *
+   * @see #isRayPickingEnabled()
+   */
+  public void enableRayPicking(boolean flag) {
+    _rayPicking = flag;
+    if (flag && _bvh == null) {
+      _bvh = new BoundingVolumeHierarchy();
+      _bvhFrames = new ArrayList<Frame>();
+      _rayFrames = new ArrayList<Frame>();
+      _rayOrigin = new Vector();
+      _rayDirection = new Vector();
+      _rayX = new float[8];
+      _rayY = new float[8];
+      _rayResult = new Frame[8];
+    }
+    _bvhUpdate = -1;
+  }
+
+  /**
+   * Returns {@code true} if ray picking is enabled and {@code false} otherwise.
+   *
+   * @see #enableRayPicking(boolean)
+   */
+  public boolean isRayPickingEnabled() {
+    return _rayPicking;
+  }
+
+  /**
+   * Returns the {@link Frame.Precision#EXACT} frame closest to the eye along the ray
+   * defined by pixel {@code (x, y)}, or {@code null} if no such frame is found. Only
+   * meaningful if {@link #isRayPickingEnabled()}.
+   * <p>
+   * The results of the last few queries are cached within the same frame.
+   *
+   * @see #enableRayPicking(boolean)
+   */
+  protected Frame _rayCast(float x, float y) {
+    _updateBVH();
+    for (int i = 0; i < Math.min(_rayCount, _rayX.length); i++)
+      if (_rayX[i] == x && _rayY[i] == y)
+        return _rayResult[i];
+    convertClickToLine(new Point(x, y), _rayOrigin, _rayDirection);
+    Frame frame = _bvh.cast(_rayOrigin, _rayDirection);
+    int slot = _rayCount++ % _rayX.length;
+    _rayX[slot] = x;
+    _rayY[slot] = y;
+    _rayResult[slot] = frame;
+    return frame;
+  }
+
+  /**
+   * Used by {@link #_rayCast(float, float)}. Rebuilds the bounding volume hierarchy if the
+   * set of pickable frames changed, or refits it otherwise. Done at most once per frame.
+   */
+  protected void _updateBVH() {
+    if (_bvhUpdate == TimingHandler.frameCount)
+      return;
+    _rayFrames.clear();
+    for (Frame frame : _leadingFrames())
+      _collectPickable(frame);
+    if (_rayFrames.equals(_bvhFrames) && _bvhUpdate != -1)
+      _bvh.refit();
+    else {
+      _bvh.build(_rayFrames);
+      ArrayList<Frame> frames = _bvhFrames;
+      _bvhFrames = _rayFrames;
+      _rayFrames = frames;
+    }
+    _rayCount = 0;
+    _bvhUpdate = TimingHandler.frameCount;
+  }
+
+  /**
+   * Used by {@link #_updateBVH()}. Collects the {@code frame} branch frames that may be
+   * ray picked.
+   */
+  protected void _collectPickable(Frame frame) {
+    if (frame.precision() == Frame.Precision.EXACT && frame.isTrackingEnabled() && frame.hasBoundingVolume() && !isEye(frame))
+      _rayFrames.add(frame);
+    if (!frame.isCulled())
+      for (Frame child : frame.children())
+        _collectPickable(child);
   }
 
   // OPENGL
@@ -476,7 +940,7 @@ public class Scene extends Graph implements PConstants {
     if (areTimersSequential())
       timingHandler().registerTask(task);
     else
-      timingHandler().registerTask(task, new ParallelTimer(task));
+      timingHandler().registerTask(task, new ParallelTimer(timingHandler(), task));
   }
 
   /**
@@ -495,7 +959,9 @@ public class Scene extends Graph implements PConstants {
   }
 
   /**
-   * Sets all {@link #timingHandler()} timers as (multi-threaded) java.util.Timer(s).
+   * Sets all {@link #timingHandler()} timers as (multi-threaded) parallel timers, scheduled on a
+   * shared thread pool. Tasks are still run (or completed, see {@link frames.timing.ConcurrentTaskable})
+   * on the render thread, from within {@link frames.timing.TimingHandler#handle()}.
    *
    * @see #setSequentialTimers()
    * @see #shiftTimers()
@@ -516,7 +982,7 @@ public class Scene extends Graph implements PConstants {
         rOnce = task.timer().isSingleShot();
       }
       task.stop();
-      task.setTimer(new ParallelTimer(task));
+      task.setTimer(new ParallelTimer(timingHandler(), task));
       if (isActive) {
         if (rOnce)
           task.runOnce(period);
@@ -526,7 +992,7 @@ public class Scene extends Graph implements PConstants {
     }
 
     _javaTiming = true;
-    PApplet.println("java util timers set");
+    PApplet.println("parallel timers set");
   }
 
   /**
@@ -973,8 +1439,12 @@ public class Scene extends Graph implements PConstants {
 
   @Override
   protected void _track(Frame frame) {
-    if (frame.precision() == Frame.Precision.EXACT && _bb != null) {
-      if (!_tuples.isEmpty()) {
+    if (frame.precision() == Frame.Precision.EXACT && (_bb != null || isRayPickingEnabled())) {
+      if (isTrackingIndexEnabled()) {
+        if (!isEye(frame) && frame.isTrackingEnabled())
+          _trackingGrid.add(frame);
+      } else if (!_tuples.isEmpty() && !_isPickingOnDemand()) {
+        // on-demand cast requests are resolved by _renderBackBuffer()
         Iterator<Tuple> it = _tuples.iterator();
         while (it.hasNext()) {
           Tuple tuple = it.next();
@@ -1022,7 +1492,7 @@ public class Scene extends Graph implements PConstants {
 
   @Override
   public boolean tracks(float x, float y, Frame frame) {
-    if (frame.precision() == Frame.Precision.EXACT && _bb != null)
+    if (frame.precision() == Frame.Precision.EXACT && (_bb != null || isRayPickingEnabled()))
       return _tracks(x, y, frame);
     else
       return _tracks(x, y, screenLocation(frame.position()), frame);
@@ -1034,7 +1504,8 @@ public class Scene extends Graph implements PConstants {
    * color buffer (see {@link frames.processing.Scene#backBuffer()}). This method
    * compares the color of the {@link frames.processing.Scene#backBuffer()} at
    * {@code (x,y)} with the shape id. Returns true if both colors are the same, and false
-   * otherwise.
+   * otherwise. If {@link #isRayPickingEnabled()} the shape is instead compared with the
+   * one picked by {@link #_rayCast(float, float)}.
    * <p>
    * This method is only meaningful when this shape is not an eye.
    *
@@ -1045,6 +1516,15 @@ public class Scene extends Graph implements PConstants {
       return false;
     if (!frame.isTrackingEnabled())
       return false;
+    if (isRayPickingEnabled())
+      return _rayCast(x, y) == frame;
+    if (_isPickingOnDemand()) {
+      if (_pickUpdate != TimingHandler.frameCount || !_isInPickRegion(x, y))
+        _renderBackBuffer((int) x - PICKING_MARGIN, (int) y - PICKING_MARGIN, 2 * PICKING_MARGIN + 1, 2 * PICKING_MARGIN + 1);
+      return _pickId(x, y) == frame.id();
+    }
+    if (isAsynchronousPickingEnabled())
+      return _asyncPickId(x, y) == frame.id();
     int index = (int) y * width() + (int) x;
     if (backBuffer().pixels != null)
       if ((0 <= index) && (index < backBuffer().pixels.length))
@@ -1064,6 +1544,13 @@ public class Scene extends Graph implements PConstants {
   @Override
   public void traverse() {
     _targetPGraphics = frontBuffer();
+    // the tracking index resolves the cast requests against all frames at the end of the traversal
+    if (_isPickingOnDemand() && !isTrackingIndexEnabled() && !_tuples.isEmpty()) {
+      for (Tuple tuple : _tuples) {
+        resetTrackedFrame(tuple._hid);
+        _pickTuples.add(tuple);
+      }
+    }
     super.traverse();
   }
 
@@ -1115,6 +1602,9 @@ public class Scene extends Graph implements PConstants {
    * Note that {@code traverse(backBuffer())} (which enables 'picking' of the frames
    * using a <a href="http://schabby.de/picking-opengl-ray-tracing/">'ray-picking'</a>
    * technique is called by {@link #draw()}.
+   * <p>
+   * Frustum culling (see {@link #enableFrustumCulling(boolean)}) only takes place when
+   * {@code view} is the eye cached view (see {@link MatrixHandler#cacheView()}).
    *
    * @see #frames()
    * @see #traverse()
@@ -1126,14 +1616,39 @@ public class Scene extends Graph implements PConstants {
       matrixHandler._bindProjection(projection);
       matrixHandler._bindModelView(view);
     }
+    // the eye boundary equations are meaningless for other points of view
+    boolean frustumCulling = _frustumCulling;
+    if (view != matrixHandler().cacheView())
+      _frustumCulling = false;
     super.traverse();
+    _frustumCulling = frustumCulling;
+  }
+
+  /**
+   * Frames are only tracked when traversing the {@link #frontBuffer()}, i.e., the
+   * {@link #backBuffer()} and other {@link #traverse(PGraphics)} passes neither track them
+   * nor rebuild the tracking index.
+   */
+  @Override
+  protected boolean _isTrackingPass() {
+    return _targetPGraphics == frontBuffer();
   }
 
   @Override
   protected void _visit(Frame frame) {
+    if (_isFrustumCulled(frame))
+      return;
+    if (_retained != null && _targetPGraphics != backBuffer()) {
+      Retained retained = _retained.get(frame);
+      if (retained != null && _replay(frame, retained))
+        return;
+    }
+    if (_targetPGraphics == backBuffer() && _isPickingOnDemand() && frame.precision() == Frame.Precision.EXACT)
+      _pickFrames.put(frame.id(), frame);
     _targetPGraphics.pushMatrix();
     applyTransformation(_targetPGraphics, frame);
-    _track(frame);
+    if (_isTrackingPass())
+      _track(frame);
     if (_targetPGraphics != backBuffer() || frame instanceof Shape)
       frame.visit();
     if (!frame.isCulled())
@@ -1143,6 +1658,197 @@ public class Scene extends Graph implements PConstants {
   }
 
 
+  // Retained mode
+
+  /**
+   * Same as {@code enableRetainedMode(frame, true)}.
+   *
+   * @see #enableRetainedMode(Frame, boolean)
+   */
+  public void enableRetainedMode(Frame frame) {
+    enableRetainedMode(frame, true);
+  }
+
+  /**
+   * Same as {@code enableRetainedMode(frame, false)}.
+   *
+   * @see #enableRetainedMode(Frame, boolean)
+   */
+  public void disableRetainedMode(Frame frame) {
+    enableRetainedMode(frame, false);
+  }
+
+  /**
+   * Enables or disables the retained mode rendering of the {@code frame} branch according
+   * to {@code enable}.
+   * <p>
+   * When the branch (i.e., the frame and its descendants) hasn't been modified during a
+   * {@link #traverse()}, its draw commands (the {@link Shape} pshapes together with their
+   * transformation relative to the frame reference) are recorded into a compact command list,
+   * which is then replayed by the next traversals, as long as the branch remains unchanged,
+   * instead of visiting the branch frames one by one. The branch is visited as usual when it
+   * changes, i.e., when any of its frames is transformed, added or removed, when a shape
+   * pshape is set, or when a frame is {@link Frame#cull(boolean)}.
+   * <p>
+   * Only branches made of frames not overriding {@link Frame#visit()} and shapes set from a
+   * retained mode pshape (see {@link Shape#setGraphics(PShape)}) can be recorded. The branch
+   * is also visited as usual while any of its frames is tracked (so that it gets highlighted),
+   * when rendering the {@link #backBuffer()}, and when the simulation timestep is fixed (see
+   * {@link TimingHandler#isFixedTimestepEnabled()}) since frames are then drawn at their
+   * interpolated state. Note that the frames within a recorded branch are not individually
+   * culled against the eye boundary (see {@link #enableFrustumCulling(boolean)}).
+   *
+   * @see #isRetainedModeEnabled(Frame)
+   */
+  public void enableRetainedMode(Frame frame, boolean enable) {
+    if (frame == null)
+      return;
+    if (enable) {
+      if (_retained == null)
+        _retained = new HashMap<Frame, Retained>();
+      if (!_retained.containsKey(frame))
+        _retained.put(frame, new Retained());
+    } else if (_retained != null) {
+      _retained.remove(frame);
+      if (_retained.isEmpty())
+        _retained = null;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the {@code frame} branch is rendered in retained mode and
+   * {@code false} otherwise.
+   *
+   * @see #enableRetainedMode(Frame, boolean)
+   */
+  public boolean isRetainedModeEnabled(Frame frame) {
+    return _retained != null && _retained.containsKey(frame);
+  }
+
+  /**
+   * Command list of a retained mode branch. Each command draws a pshape using a matrix,
+   * relative to the branch frame reference, packed as 16 (row major) floats.
+   */
+  protected static class Retained {
+    // branch version last seen and the one the commands were recorded at
+    protected long _version = -1;
+    protected long _recordVersion = -1;
+    protected boolean _recordable;
+    protected boolean _is3D;
+    protected PShape[] _shapes = new PShape[16];
+    protected float[] _matrices = new float[16 * 16];
+    protected int _size;
+    // frames to be tracked during replay
+    protected Frame[] _frames = new Frame[16];
+    protected int _frameCount;
+  }
+
+  /**
+   * Used by {@link #_visit(Frame)}. Draws the {@code frame} branch from its {@code retained}
+   * command list, recording it first if the branch was also unchanged at the previous call.
+   * Returns {@code false} if the branch should be visited as usual.
+   */
+  protected boolean _replay(Frame frame, Retained retained) {
+    if (timingHandler().isFixedTimestepEnabled())
+      return false;
+    long version = _branchVersion(frame);
+    if (version != retained._version) {
+      retained._version = version;
+      return false;
+    }
+    for (Frame tracked : _agents.values())
+      for (Frame ancestor = tracked; ancestor != null; ancestor = ancestor.reference())
+        if (ancestor == frame)
+          return false;
+    boolean is3D = _targetPGraphics instanceof PGraphics3D;
+    if (retained._recordVersion != version || retained._is3D != is3D) {
+      retained._size = 0;
+      retained._frameCount = 0;
+      retained._is3D = is3D;
+      retained._recordVersion = version;
+      retained._recordable = _record(frame, new Matrix(), retained);
+    }
+    if (!retained._recordable)
+      return false;
+    PGraphics pGraphics = _targetPGraphics;
+    float[] m = retained._matrices;
+    pGraphics.pushStyle();
+    for (int i = 0; i < retained._size; i++) {
+      int k = 16 * i;
+      pGraphics.pushMatrix();
+      if (is3D)
+        pGraphics.applyMatrix(m[k], m[k + 1], m[k + 2], m[k + 3], m[k + 4], m[k + 5], m[k + 6], m[k + 7],
+            m[k + 8], m[k + 9], m[k + 10], m[k + 11], m[k + 12], m[k + 13], m[k + 14], m[k + 15]);
+      else
+        pGraphics.applyMatrix(m[k], m[k + 1], m[k + 3], m[k + 4], m[k + 5], m[k + 7]);
+      pGraphics.shape(retained._shapes[i]);
+      pGraphics.popMatrix();
+    }
+    pGraphics.popStyle();
+    if (isTrackingIndexEnabled() || !_tuples.isEmpty())
+      for (int i = 0; i < retained._frameCount; i++)
+        _track(retained._frames[i]);
+    return true;
+  }
+
+  /**
+   * Used by {@link #_replay(Frame, Retained)}. Appends the draw commands of the {@code frame}
+   * branch to the {@code retained} command list, being {@code matrix} the transformation of
+   * the frame reference relative to the retained branch reference. Returns {@code false} if
+   * the branch cannot be recorded.
+   */
+  protected boolean _record(Frame frame, Matrix matrix, Retained retained) {
+    matrix = matrix.get();
+    Vector translation = frame.translation();
+    Quaternion rotation = frame.rotation();
+    float scaling = frame.scaling();
+    if (retained._is3D) {
+      matrix.translate(translation._vector[0], translation._vector[1], translation._vector[2]);
+      Vector axis = rotation.axis();
+      matrix.rotate(rotation.angle(), axis._vector[0], axis._vector[1], axis._vector[2]);
+      matrix.scale(scaling, scaling, scaling);
+    } else {
+      matrix.translate(translation.x(), translation.y());
+      matrix.rotate(rotation.angle2D());
+      matrix.scale(scaling, scaling);
+    }
+    if (retained._frameCount == retained._frames.length)
+      retained._frames = Arrays.copyOf(retained._frames, 2 * retained._frameCount);
+    retained._frames[retained._frameCount++] = frame;
+    if (frame instanceof Shape) {
+      Shape shape = (Shape) frame;
+      if (shape._frontShape == null || !_isDeclaredBy(shape, Shape.class))
+        return false;
+      if (retained._size == retained._shapes.length) {
+        retained._shapes = Arrays.copyOf(retained._shapes, 2 * retained._size);
+        retained._matrices = Arrays.copyOf(retained._matrices, 32 * retained._size);
+      }
+      matrix.get(_recordMatrix, false);
+      System.arraycopy(_recordMatrix, 0, retained._matrices, 16 * retained._size, 16);
+      retained._shapes[retained._size++] = shape._frontShape;
+    } else if (!_isDeclaredBy(frame, Frame.class))
+      return false;
+    if (!frame.isCulled())
+      for (Frame child : frame.children())
+        if (!_record(child, matrix, retained))
+          return false;
+    return true;
+  }
+
+  /**
+   * Used by {@link #_record(Frame, Matrix, Retained)}. Returns {@code true} if the {@code frame}
+   * drawing methods are those of the given {@code type}, i.e., if they're not overridden.
+   */
+  protected static boolean _isDeclaredBy(Frame frame, Class<?> type) {
+    try {
+      if (frame.getClass().getMethod("visit").getDeclaringClass() != type)
+        return false;
+      return type != Shape.class || frame.getClass().getMethod("draw", PGraphics.class).getDeclaringClass() == type;
+    } catch (NoSuchMethodException exception) {
+      return false;
+    }
+  }
+
   /**
    * Returns a new matrix helper for the given {@code pGraphics}. Rarely needed.
    * <p>
@@ -1161,19 +1867,32 @@ public class Scene extends Graph implements PConstants {
   /**
    * Apply the local transformation defined by the given {@code frame} on the given
    * {@code pGraphics}. Needed by {@link #applyWorldTransformation(PGraphics, Frame)}.
+   * <p>
+   * Frames are transformed according to their interpolated simulation state (see
+   * {@link Frame#interpolatedTranslation()}).
    *
    * @see #applyWorldTransformation(PGraphics, Frame)
    */
   public static void applyTransformation(PGraphics pGraphics, Frame frame) {
+    Vector translation = frame.interpolatedTranslation();
+    Quaternion rotation = frame.interpolatedRotation();
+    float scaling = frame.interpolatedScaling();
     if (pGraphics instanceof PGraphics3D) {
-      pGraphics.translate(frame.translation()._vector[0], frame.translation()._vector[1], frame.translation()._vector[2]);
-      pGraphics.rotate(frame.rotation().angle(), frame.rotation().axis()._vector[0],
-          frame.rotation().axis()._vector[1], frame.rotation().axis()._vector[2]);
-      pGraphics.scale(frame.scaling(), frame.scaling(), frame.scaling());
+      pGraphics.translate(translation._vector[0], translation._vector[1], translation._vector[2]);
+      // normalized rotation axis, computed in place (see Quaternion.axis())
+      float x = rotation.x(), y = rotation.y(), z = rotation.z();
+      float sinus = (float) Math.sqrt(x * x + y * y + z * z);
+      if (sinus != 0) {
+        x /= sinus;
+        y /= sinus;
+        z /= sinus;
+      }
+      pGraphics.rotate(rotation.angle(), x, y, z);
+      pGraphics.scale(scaling, scaling, scaling);
     } else {
-      pGraphics.translate(frame.translation().x(), frame.translation().y());
-      pGraphics.rotate(frame.rotation().angle2D());
-      pGraphics.scale(frame.scaling(), frame.scaling());
+      pGraphics.translate(translation.x(), translation.y());
+      pGraphics.rotate(rotation.angle2D());
+      pGraphics.scale(scaling, scaling);
     }
   }
 
@@ -1497,6 +2216,10 @@ public class Scene extends Graph implements PConstants {
    * <p>
    * {@code scale} controls the scaling of the eye and axes drawing. A value of
    * {@link #radius()} should give good results.
+   * <p>
+   * The position path is drawn from the {@link Interpolator#pathSamples()} and the eyes and
+   * axes are evaluated with {@link Interpolator#evaluate(float, float[], int)}, so that no
+   * objects are allocated.
    */
   public void drawPath(Interpolator interpolator, int mask, int frameCount, float scale) {
     frontBuffer().pushStyle();
@@ -1504,25 +2227,25 @@ public class Scene extends Graph implements PConstants {
       int nbSteps = 30;
       frontBuffer().strokeWeight(2 * frontBuffer().strokeWeight);
       frontBuffer().noFill();
-      List<Frame> path = interpolator.path();
-      if (((mask & 1) != 0) && path.size() > 1) {
+      float[] path = interpolator.pathSamples();
+      int size = interpolator.pathSize();
+      if (((mask & 1) != 0) && size > 1) {
         frontBuffer().beginShape();
-        for (Frame myFr : path)
-          vertex(myFr.position().x(), myFr.position().y(), myFr.position().z());
+        for (int offset = 0; offset < size * Interpolator.SAMPLE_STRIDE; offset += Interpolator.SAMPLE_STRIDE)
+          vertex(path[offset], path[offset + 1], path[offset + 2]);
         frontBuffer().endShape();
       }
       if ((mask & 6) != 0) {
-        int count = 0;
         if (frameCount > nbSteps)
           frameCount = nbSteps;
-        float goal = 0.0f;
-
-        for (Frame myFr : path)
-          if ((count++) >= goal) {
-            goal += nbSteps / (float) frameCount;
+        int last = interpolator.size() - 1;
+        for (int index = 0; index <= last; index++)
+          for (int step = 0; step < (index < last ? frameCount : 1); step++) {
+            float time = index < last ? interpolator.time(index) + (interpolator.time(index + 1) - interpolator.time(index)) * step / frameCount : interpolator.time(index);
+            interpolator.evaluate(time, _pathSample, 0);
             pushModelView();
 
-            applyTransformation(myFr);
+            _applyTransformation(_pathSample);
 
             if ((mask & 2) != 0)
               _drawEye(scale);
@@ -1540,6 +2263,25 @@ public class Scene extends Graph implements PConstants {
     frontBuffer().popStyle();
   }
 
+  /**
+   * Internal use. Applies the transformation defined by an interpolator path
+   * {@code sample} (see {@link Interpolator#pathSamples()}).
+   */
+  protected void _applyTransformation(float[] sample) {
+    float angle = 2.0f * (float) Math.acos(Math.min(1.0f, sample[6]));
+    if (is2D()) {
+      matrixHandler().translate(sample[0], sample[1]);
+      matrixHandler().rotate(sample[5] > 0 ? angle : -angle);
+      matrixHandler().scale(sample[7], sample[7]);
+    } else {
+      matrixHandler().translate(sample[0], sample[1], sample[2]);
+      float sinus = (float) Math.sqrt(sample[3] * sample[3] + sample[4] * sample[4] + sample[5] * sample[5]);
+      if (sinus > 1E-8f)
+        matrixHandler().rotate(angle, sample[3] / sinus, sample[4] / sinus, sample[5] / sinus);
+      matrixHandler().scale(sample[7], sample[7], sample[7]);
+    }
+  }
+
   /**
    * Internal use.
    */
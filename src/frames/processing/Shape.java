@@ -15,12 +15,12 @@ package frames.processing;
 
 import frames.core.Frame;
 import frames.core.Graph;
-import processing.core.PApplet;
-import processing.core.PGraphics;
-import processing.core.PShape;
-import processing.core.PVector;
+import frames.primitives.Vector;
+import processing.core.*;
 import processing.opengl.PGraphicsOpenGL;
 
+import java.lang.reflect.Field;
+
 /**
  * A shape is a {@link Frame} specialization that should always be attached to a {@code scene}
  * (see {@link Frame#isAttached(Graph)}) and that can be set from a retained-mode rendering Processing
@@ -75,6 +75,10 @@ public class Shape extends Frame {
 
   Highlighting _highlight;
 
+  // pshape matrix access, see _matrix(PShape)
+  protected static Field _matrixField;
+  protected static final PMatrix _identity = new PMatrix3D();
+
   /**
    * Constructs a scene 'attached' shape with {@link Precision#EXACT} and {@link Highlighting#FRONT} policy.
    */
@@ -360,6 +364,8 @@ public class Shape extends Frame {
    */
   public void setFrontGraphics(PShape shape) {
     _frontShape = shape;
+    _updateBoundingBox();
+    _branchModified();
   }
 
   /**
@@ -371,5 +377,117 @@ public class Shape extends Frame {
    */
   public void setBackGraphics(PShape shape) {
     _backShape = shape;
+    _updateBoundingBox();
+    _branchModified();
+  }
+
+  /**
+   * Sets the shape bounding box (see {@link #setBoundingBox(Vector, Vector)}) to enclose
+   * both, the front and the back retained mode pshapes, taking into account their (and
+   * their children) transformation matrices. Called when setting them. The bounding volume
+   * is removed (see {@link #resetBoundingVolume()}) when there are no pshapes, they
+   * don't have any vertex or their bounds can't be determined, e.g., for primitive
+   * pshapes other than boxes and spheres.
+   *
+   * @see Scene#enableRayPicking(boolean)
+   * @see Scene#enableFrustumCulling(boolean)
+   */
+  protected void _updateBoundingBox() {
+    float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+    float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    boolean bounded = true;
+    if (_frontShape != null)
+      bounded = _bounds(_frontShape, new PMatrix3D(), min, max);
+    if (bounded && _backShape != null && _backShape != _frontShape)
+      bounded = _bounds(_backShape, new PMatrix3D(), min, max);
+    if (bounded && min[0] <= max[0])
+      setBoundingBox(new Vector(min[0], min[1], min[2]), new Vector(max[0], max[1], max[2]));
+    else
+      resetBoundingVolume();
+  }
+
+  /**
+   * Used by {@link #_updateBoundingBox()}. Grows the {@code min} and {@code max} corners to
+   * enclose the {@code pShape} vertices transformed by the {@code pShape} matrix and then by
+   * {@code matrix}. Returns {@code false} if the {@code pShape} bounds can't be determined.
+   */
+  protected static boolean _bounds(PShape pShape, PMatrix3D matrix, float[] min, float[] max) {
+    PMatrix pMatrix = _matrix(pShape);
+    if (pMatrix == null)
+      return false;
+    if (pMatrix != _identity) {
+      matrix = matrix.get();
+      matrix.apply(pMatrix);
+    }
+    if (pShape.getFamily() == PShape.GROUP) {
+      for (int i = 0; i < pShape.getChildCount(); i++)
+        if (!_bounds(pShape.getChild(i), matrix, min, max))
+          return false;
+      return true;
+    }
+    if (pShape.getFamily() == PShape.PRIMITIVE) {
+      float[] params = pShape.getParams();
+      float x, y, z;
+      if (pShape.getKind() == PApplet.BOX && params.length >= 3) {
+        x = params[0] / 2;
+        y = params[1] / 2;
+        z = params[2] / 2;
+      } else if (pShape.getKind() == PApplet.BOX && params.length >= 1)
+        x = y = z = params[0] / 2;
+      else if (pShape.getKind() == PApplet.SPHERE && params.length >= 1)
+        x = y = z = params[0];
+      else
+        return false;
+      PVector corner = new PVector();
+      for (int i = 0; i < 8; i++) {
+        corner.set((i & 1) == 0 ? -x : x, (i & 2) == 0 ? -y : y, (i & 4) == 0 ? -z : z);
+        _bounds(matrix, corner, min, max);
+      }
+      return true;
+    }
+    PVector vertex = new PVector();
+    for (int i = 0; i < pShape.getVertexCount(); i++)
+      _bounds(matrix, pShape.getVertex(i, vertex), min, max);
+    return true;
+  }
+
+  /**
+   * Used by {@link #_bounds(PShape, PMatrix3D, float[], float[])}. Grows the {@code min} and
+   * {@code max} corners to enclose the {@code vertex} transformed by {@code matrix}. Note
+   * that {@code vertex} gets overwritten.
+   */
+  protected static void _bounds(PMatrix3D matrix, PVector vertex, float[] min, float[] max) {
+    matrix.mult(vertex.copy(), vertex);
+    _bounds(vertex.x, vertex.y, vertex.z, min, max);
+  }
+
+  /**
+   * Used by {@link #_bounds(PShape, PMatrix3D, float[], float[])}. Returns the (protected)
+   * {@code pShape} transformation matrix, {@link #_identity} if it has none, or
+   * {@code null} if it can't be accessed.
+   */
+  protected static PMatrix _matrix(PShape pShape) {
+    try {
+      if (_matrixField == null) {
+        _matrixField = PShape.class.getDeclaredField("matrix");
+        _matrixField.setAccessible(true);
+      }
+      PMatrix matrix = (PMatrix) _matrixField.get(pShape);
+      return matrix == null ? _identity : matrix;
+    } catch (Exception exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Used by {@link #_bounds(PMatrix3D, PVector, float[], float[])}.
+   */
+  protected static void _bounds(float x, float y, float z, float[] min, float[] max) {
+    min[0] = Math.min(min[0], x);
+    min[1] = Math.min(min[1], y);
+    min[2] = Math.min(min[2], z);
+    max[0] = Math.max(max[0], x);
+    max[1] = Math.max(max[1], y);
+    max[2] = Math.max(max[2], z);
   }
 }
@@ -0,0 +1,27 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.timing;
+
+/**
+ * Interface used to define a timer callback method split in two: {@link #execute()},
+ * which parallel timers run on a worker thread and should thus only compute results
+ * (without touching the scene), and {@link #complete()}, which is run on the render thread
+ * from within {@link TimingHandler#handle()} and is where the results should be applied
+ * (e.g., by modifying frames).
+ *
+ * @see TimingHandler#post(Runnable)
+ */
+public interface ConcurrentTaskable extends Taskable {
+  /**
+   * Completion callback method, run on the render thread after {@link #execute()}.
+   */
+  public void complete();
+}
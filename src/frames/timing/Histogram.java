@@ -0,0 +1,141 @@
+/****************************************************************************************
+ * frames
+ * Copyright (c) 2018 National University of Colombia, https://visualcomputing.github.io/
+ * @author Jean Pierre Charalambos, https://github.com/VisualComputing
+ *
+ * All rights reserved. A 2D or 3D scene graph library providing eye, input and timing
+ * handling to a third party (real or non-real time) renderer. Released under the terms
+ * of the GPL v3.0 which is available at http://www.gnu.org/licenses/gpl.html
+ ****************************************************************************************/
+
+package frames.timing;
+
+import java.util.Arrays;
+
+/**
+ * A high dynamic range histogram of (non-negative) long values, such as nanosecond
+ * latencies, recorded in constant time and space.
+ * <p>
+ * Values are counted into log-linear buckets: each power of two range is split into
+ * {@code 32} equally sized sub-buckets, so that any {@link #percentile(float)} is reported
+ * with a relative error smaller than {@code 1/32} (about 3%), whatever the magnitude of
+ * the values. The {@link #min()}, {@link #max()} and {@link #mean()} are exact.
+ *
+ * @see TimingHandler#histogram(TimingHandler.Phase)
+ */
+public class Histogram {
+  protected static final int SUB_BUCKET_BITS = 5;
+  protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  protected long[] _counts;
+  protected long _count;
+  protected long _sum;
+  protected long _min;
+  protected long _max;
+
+  /**
+   * Creates an empty histogram.
+   */
+  public Histogram() {
+    _counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS)];
+    reset();
+  }
+
+  /**
+   * Removes all the recorded values.
+   */
+  public void reset() {
+    Arrays.fill(_counts, 0);
+    _count = 0;
+    _sum = 0;
+    _min = Long.MAX_VALUE;
+    _max = 0;
+  }
+
+  /**
+   * Records the given {@code value}. Negative values are recorded as {@code 0}.
+   */
+  public void record(long value) {
+    if (value < 0)
+      value = 0;
+    _counts[_index(value)]++;
+    _count++;
+    _sum += value;
+    if (value < _min)
+      _min = value;
+    if (value > _max)
+      _max = value;
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long count() {
+    return _count;
+  }
+
+  /**
+   * Returns the smallest recorded value, or {@code 0} if the histogram is empty.
+   */
+  public long min() {
+    return _count == 0 ? 0 : _min;
+  }
+
+  /**
+   * Returns the largest recorded value, or {@code 0} if the histogram is empty.
+   */
+  public long max() {
+    return _max;
+  }
+
+  /**
+   * Returns the mean of the recorded values, or {@code 0} if the histogram is empty.
+   */
+  public double mean() {
+    return _count == 0 ? 0 : (double) _sum / _count;
+  }
+
+  /**
+   * Returns the value below (or at) which {@code percentile} percent of the recorded
+   * values fall, e.g., {@code percentile(50)} is the median and {@code percentile(99)}
+   * the 99th percentile. Returns {@code 0} if the histogram is empty.
+   */
+  public long percentile(float percentile) {
+    if (_count == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100.0 * _count));
+    long accumulated = 0;
+    for (int index = 0; index < _counts.length; index++) {
+      accumulated += _counts[index];
+      if (accumulated >= rank)
+        return Math.max(_min, Math.min(_max, _highestValue(index)));
+    }
+    return _max;
+  }
+
+  /**
+   * Returns the bucket index of {@code value}.
+   */
+  protected static int _index(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKETS * (shift + 1) + (int) ((value >> shift) - SUB_BUCKETS);
+  }
+
+  /**
+   * Returns the largest value counted by the bucket at {@code index}.
+   */
+  protected static long _highestValue(int index) {
+    if (index < SUB_BUCKETS)
+      return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "count: " + count() + " p50: " + percentile(50) + " p99: " + percentile(99) + " max: " + max();
+  }
+}
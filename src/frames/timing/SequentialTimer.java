@@ -12,15 +12,24 @@ package frames.timing;
 
 /**
  * Sequential timers are single-threaded timers handled by a TimingHandler.
+ * <p>
+ * Active timers are kept in the handler deadline queue (see
+ * {@link frames.timing.TimingHandler#handle()}), so that only the timers actually due
+ * at a given frame are visited.
  */
 public class SequentialTimer implements Timer {
   protected Taskable _task;
   protected TimingHandler _handler;
   protected boolean _active;
   protected boolean _once;
-  private long _counter;
-  private long _period;
-  private long _startTime;
+  protected long _counter;
+  protected long _period;
+  protected long _startTime;
+
+  // deadline queue
+  protected long _deadline;
+  protected int _queueIndex = -1;
+  protected Animator _animator;
 
   /**
    * Defines a single shot sequential (single-threaded) timer.
@@ -97,7 +106,10 @@ public class SequentialTimer implements Timer {
     inactivate();
     _counter = 1;
     _active = true;
-    _startTime = System.currentTimeMillis();
+    _startTime = _handler == null ? System.currentTimeMillis() : _handler._millis();
+    _deadline = _startTime + _period;
+    if (_handler != null)
+      _handler._schedule(this);
   }
 
   @Override
@@ -117,6 +129,8 @@ public class SequentialTimer implements Timer {
    */
   public void inactivate() {
     _active = false;
+    if (_handler != null)
+      _handler._unschedule(this);
   }
 
   /**
@@ -129,7 +143,7 @@ public class SequentialTimer implements Timer {
     if (!_active)
       return false;
 
-    long elapsedTime = System.currentTimeMillis() - _startTime;
+    long elapsedTime = (_handler == null ? System.currentTimeMillis() : _handler._millis()) - _startTime;
 
     float timePerFrame = (1 / _handler.frameRate()) * 1000;
     long threshold = _counter * _period;
@@ -146,13 +160,30 @@ public class SequentialTimer implements Timer {
       result = true;
     }
 
-    if (result) {
-      _counter++;
-    }
+    if (result)
+      _next();
 
     return result;
   }
 
+  /**
+   * Internal use. Moves the timer deadline to the next period.
+   */
+  protected void _next() {
+    _counter++;
+    _updateDeadline();
+  }
+
+  /**
+   * Internal use. Recomputes the timer deadline (from its start time, {@link #period()} and
+   * number of triggered periods) and updates its position in the handler deadline queue.
+   */
+  protected void _updateDeadline() {
+    _deadline = _startTime + _counter * _period;
+    if (_queueIndex != -1)
+      _handler._schedule(this);
+  }
+
   @Override
   public long period() {
     return _period;
@@ -161,6 +192,7 @@ public class SequentialTimer implements Timer {
   @Override
   public void setPeriod(long period) {
     _period = period;
+    _updateDeadline();
   }
 
   @Override
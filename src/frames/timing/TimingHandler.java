@@ -11,6 +11,9 @@
 package frames.timing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A timing handler holds a {@link #timerPool()} and an {@link #animatorPool()}. The timer
@@ -18,19 +21,70 @@ import java.util.ArrayList;
  * periodically). The animation pool are all the objects that implement an animation
  * callback function. For an introduction to FPSTiming please refer to
  * <a href="http://nakednous.github.io/projects/fpstiming">this</a>.
+ * <p>
+ * Active {@link SequentialTimer}s are kept in a deadline ordered queue (a binary min-heap),
+ * so that the per frame cost of {@link #handle()} is proportional to the number of timers
+ * actually due, not to the number of registered tasks and animators.
+ * <p>
+ * The handler also provides a fixed timestep simulation mode (see
+ * {@link #enableFixedTimestep(boolean)}), and a lock-free completion queue (see
+ * {@link #post(Runnable)}) through which tasks run on other threads hand their results
+ * to the render thread.
+ * <p>
+ * Frame times and the durations of the main per frame phases (see {@link Phase}) may be
+ * recorded with nanosecond precision into {@link Histogram}s (see
+ * {@link #enableProfiling(boolean)}).
  */
 public class TimingHandler {
+  /**
+   * Per frame phases whose duration may be recorded (see {@link #histogram(Phase)}).
+   * {@code FRAME} is the time elapsed between consecutive {@link #handle()} calls;
+   * {@code HANDLE} the duration of {@link #handle()}; {@code PRE_DRAW} the one of the
+   * graph {@code preDraw()} (including {@link #handle()}); {@code TRAVERSE} the one of each
+   * graph {@code traverse()}; and {@code BACK_BUFFER} the one of the scene picking back
+   * buffer rendering (including its traversal).
+   */
+  public enum Phase {
+    FRAME, HANDLE, PRE_DRAW, TRAVERSE, BACK_BUFFER
+  }
+
   static public long frameCount;
+  static public long stepCount;
   protected float _frameRate;
 
   protected long _deltaCount;
   // T i m e r P o o l
   protected ArrayList<TimingTask> _taskPool;
+  protected HashSet<TimingTask> _registeredTasks;
   protected long _frameRateLastMillis;
+  protected long _frameRateLastNanos;
   protected long _localCount;
 
   // A N I M A T I O N
   protected ArrayList<Animator> _animatorPool;
+  protected ArrayList<Animator> _unboundAnimators;
+
+  // D E A D L I N E Q U E U E
+  protected SequentialTimer[] _queue;
+  protected int _queueSize;
+  protected ArrayList<SequentialTimer> _due;
+
+  // F I X E D T I M E S T E P
+  protected boolean _fixedTimestep;
+  protected long _timestep;
+  protected int _maxSteps;
+  protected long _accumulator;
+  protected long _lastNanos;
+  protected long _simulationNanos;
+  protected float _alpha;
+  protected boolean _stepping;
+
+  // C O M P L E T I O N S
+  protected ConcurrentLinkedQueue<Runnable> _completions;
+
+  // P R O F I L I N G
+  protected boolean _profiling;
+  protected Histogram[] _histograms;
 
   /**
    * Main constructor.
@@ -41,27 +95,438 @@ public class TimingHandler {
     _frameRate = 10;
     _frameRateLastMillis = System.currentTimeMillis();
     _taskPool = new ArrayList<TimingTask>();
+    _registeredTasks = new HashSet<TimingTask>();
     _animatorPool = new ArrayList<Animator>();
+    _unboundAnimators = new ArrayList<Animator>();
+    _queue = new SequentialTimer[16];
+    _due = new ArrayList<SequentialTimer>();
+    _completions = new ConcurrentLinkedQueue<Runnable>();
+    _histograms = new Histogram[Phase.values().length];
+    for (int i = 0; i < _histograms.length; i++)
+      _histograms[i] = new Histogram();
+    setTimestep(1000f / 60);
+    setMaxSteps(5);
   }
 
   /**
    * Handler's main method. It should be called from within your main event loop. It does
-   * the following: 1. Recomputes the frame rate; 2. Executes the all timers (those in the
-   * {@link #timerPool()}) callback functions; and, 3. Performs all the animated objects
+   * the following: 1. Recomputes the frame rate; 2. Executes the due timers (those in the
+   * {@link #timerPool()}) callback functions; and, 3. Performs the due animated objects
    * (those in the {@link #animatorPool()}) animation functions.
+   * <p>
+   * A sequential timer is due when its deadline is closer to the current time than to the
+   * next frame time (estimated from the {@link #frameRate()}). Due timers are polled from
+   * the deadline queue, so timers which aren't due are never visited. Each timer is
+   * triggered at most once per frame.
+   * <p>
+   * The completions posted from other threads (see {@link #post(Runnable)}) are run first.
+   * <p>
+   * If {@link #isFixedTimestepEnabled()} the timers are instead triggered from within the
+   * fixed simulation steps (see {@link #enableFixedTimestep(boolean)}).
    */
   public void handle() {
+    long start = System.nanoTime();
     _updateFrameRate();
-    for (TimingTask task : _taskPool)
-      if (task.timer() != null)
-        if (task.timer() instanceof SequentialTimer)
-          if (task.timer().timingTask() != null)
-            ((SequentialTimer) task.timer())._execute();
+    _runCompletions();
+    _bindAnimators();
+    if (isFixedTimestepEnabled())
+      _simulate();
+    else
+      // a timer is due if deadline - now < now + timePerFrame - deadline
+      _dispatch(2 * _frameRateLastMillis + (long) ((1 / _frameRate) * 1000));
+    profile(Phase.HANDLE, start);
+  }
+
+  /**
+   * Enables or disables the recording of the frame times and per frame phase durations
+   * (see {@link Phase}) according to {@code enable}.
+   *
+   * @see #histogram(Phase)
+   */
+  public void enableProfiling(boolean enable) {
+    _profiling = enable;
+  }
+
+  /**
+   * Enables profiling.
+   *
+   * @see #enableProfiling(boolean)
+   */
+  public void enableProfiling() {
+    enableProfiling(true);
+  }
+
+  /**
+   * Disables profiling.
+   *
+   * @see #enableProfiling(boolean)
+   */
+  public void disableProfiling() {
+    enableProfiling(false);
+  }
+
+  /**
+   * Returns {@code true} if profiling is enabled.
+   *
+   * @see #enableProfiling(boolean)
+   */
+  public boolean isProfilingEnabled() {
+    return _profiling;
+  }
+
+  /**
+   * Returns the histogram of the {@code phase} durations in nanoseconds, e.g.,
+   * {@code histogram(Phase.TRAVERSE).percentile(99)}. Durations are only recorded while
+   * {@link #isProfilingEnabled()}. Call {@link Histogram#reset()} to start over.
+   */
+  public Histogram histogram(Phase phase) {
+    return _histograms[phase.ordinal()];
+  }
+
+  /**
+   * Records the time elapsed since {@code start} (as returned by {@code System.nanoTime()})
+   * into the {@code phase} histogram, provided that {@link #isProfilingEnabled()}.
+   */
+  public void profile(Phase phase, long start) {
+    if (_profiling)
+      _histograms[phase.ordinal()].record(System.nanoTime() - start);
+  }
+
+  /**
+   * Used by {@link #handle()}. Runs as many fixed simulation steps as the time elapsed since
+   * the last call allows (up to {@link #maxSteps()}) and updates the interpolation
+   * {@link #alpha()}.
+   */
+  protected void _simulate() {
+    long now = System.nanoTime();
+    _accumulator += now - _lastNanos;
+    _lastNanos = now;
+    int steps = 0;
+    while (_accumulator >= _timestep && steps < _maxSteps) {
+      _accumulator -= _timestep;
+      _simulationNanos += _timestep;
+      stepCount++;
+      steps++;
+      // a timer is due if its deadline has been reached by the simulation time
+      _stepping = true;
+      _dispatch(2 * (_simulationNanos / 1000000) + 1);
+      _stepping = false;
+    }
+    // drop the steps above the cap so that the simulation slows down instead of spiraling
+    if (_accumulator >= _timestep)
+      _accumulator %= _timestep;
+    _alpha = (float) _accumulator / _timestep;
+  }
+
+  /**
+   * Used by {@link #handle()}. Executes the timers having a deadline smaller than half the
+   * given {@code horizon} (which is given doubled to keep the time precision).
+   */
+  protected void _dispatch(long horizon) {
+    while (_queueSize > 0 && 2 * _queue[0]._deadline < horizon)
+      _due.add(_poll());
+    for (SequentialTimer timer : _due)
+      if (timer._animator == null)
+        _execute(timer);
     // Animation
-    for (Animator animator : _animatorPool)
-      if (animator.started())
-        if (animator.timer().trigggered())
-          animator.animate();
+    for (SequentialTimer timer : _due)
+      if (timer._animator != null)
+        _execute(timer);
+    _due.clear();
+  }
+
+  /**
+   * Hands the {@code completion} to the render thread, i.e., it will be run from within
+   * the next {@link #handle()} call. This method is thread-safe and lock-free, and is
+   * meant to be called from threads other than the render one (such as those of the
+   * parallel timers), which should never modify the scene directly.
+   *
+   * @see ConcurrentTaskable
+   */
+  public void post(Runnable completion) {
+    _completions.offer(completion);
+  }
+
+  /**
+   * Used by {@link #handle()} to run the posted completions.
+   */
+  protected void _runCompletions() {
+    Runnable completion;
+    while ((completion = _completions.poll()) != null)
+      completion.run();
+  }
+
+  /**
+   * Enables or disables the fixed timestep simulation mode according to {@code enable}.
+   * <p>
+   * In this mode the sequential timers aren't triggered according to the {@link #frameRate()}
+   * estimate, but from within simulation steps of fixed {@link #timestep()} duration: each
+   * {@link #handle()} call runs as many steps (up to {@link #maxSteps()}) as the real time
+   * elapsed since the last call (measured with {@code System.nanoTime()}) allows, so that
+   * the simulation rate doesn't drift with the render load. When the cap is reached the
+   * remaining time is dropped, i.e., heavy scenes slow down the simulation gracefully.
+   * <p>
+   * Since rendering doesn't happen in sync with the simulation steps, frames are rendered
+   * interpolated between their last two simulation states according to {@link #alpha()}
+   * (see {@link frames.core.Frame#interpolatedTranslation()}).
+   *
+   * @see #stepCount
+   */
+  public void enableFixedTimestep(boolean enable) {
+    if (enable == _fixedTimestep)
+      return;
+    _fixedTimestep = enable;
+    if (enable) {
+      _lastNanos = System.nanoTime();
+      _simulationNanos = System.currentTimeMillis() * 1000000;
+      _accumulator = 0;
+      _alpha = 0;
+    }
+  }
+
+  /**
+   * Enables the fixed timestep simulation mode.
+   *
+   * @see #enableFixedTimestep(boolean)
+   * @see #disableFixedTimestep()
+   */
+  public void enableFixedTimestep() {
+    enableFixedTimestep(true);
+  }
+
+  /**
+   * Disables the fixed timestep simulation mode.
+   *
+   * @see #enableFixedTimestep(boolean)
+   * @see #enableFixedTimestep()
+   */
+  public void disableFixedTimestep() {
+    enableFixedTimestep(false);
+  }
+
+  /**
+   * Returns {@code true} if the fixed timestep simulation mode is enabled.
+   *
+   * @see #enableFixedTimestep(boolean)
+   */
+  public boolean isFixedTimestepEnabled() {
+    return _fixedTimestep;
+  }
+
+  /**
+   * Sets the duration of the fixed simulation steps in milliseconds. Default is 1000/60.
+   *
+   * @see #enableFixedTimestep(boolean)
+   */
+  public void setTimestep(float timestep) {
+    if (timestep > 0)
+      _timestep = (long) (timestep * 1000000);
+    else
+      System.out.println("Warning: timestep should be positive. Nothing done");
+  }
+
+  /**
+   * Returns the duration of the fixed simulation steps in milliseconds.
+   *
+   * @see #setTimestep(float)
+   */
+  public float timestep() {
+    return _timestep / 1000000f;
+  }
+
+  /**
+   * Sets the maximum number of simulation steps run by a single {@link #handle()} call.
+   * Default is 5.
+   *
+   * @see #enableFixedTimestep(boolean)
+   */
+  public void setMaxSteps(int maxSteps) {
+    if (maxSteps > 0)
+      _maxSteps = maxSteps;
+    else
+      System.out.println("Warning: maxSteps should be positive. Nothing done");
+  }
+
+  /**
+   * Returns the maximum number of simulation steps run by a single {@link #handle()} call.
+   *
+   * @see #setMaxSteps(int)
+   */
+  public int maxSteps() {
+    return _maxSteps;
+  }
+
+  /**
+   * Returns the fraction (in {@code [0..1)}) of the {@link #timestep()} elapsed since the
+   * last simulation step, which should be used to interpolate between the last two
+   * simulation states when rendering. Always {@code 1} if the fixed timestep mode is
+   * disabled.
+   *
+   * @see #enableFixedTimestep(boolean)
+   */
+  public float alpha() {
+    return isFixedTimestepEnabled() ? _alpha : 1;
+  }
+
+  /**
+   * Returns {@code true} while a fixed simulation step is being run, i.e., while the
+   * timers and animators are being triggered from within it, and {@code false} otherwise.
+   * Frames modified outside of the simulation steps (e.g., by user interaction) aren't
+   * interpolated.
+   *
+   * @see #enableFixedTimestep(boolean)
+   * @see #alpha()
+   */
+  public boolean isStepping() {
+    return _stepping;
+  }
+
+  /**
+   * Internal use. Returns the current time in milliseconds used by the sequential timers,
+   * i.e., the simulation time if {@link #isFixedTimestepEnabled()}, and
+   * {@code System.currentTimeMillis()} otherwise.
+   */
+  protected long _millis() {
+    return isFixedTimestepEnabled() ? _simulationNanos / 1000000 : System.currentTimeMillis();
+  }
+
+  /**
+   * Used by {@link #handle()}. Triggers the due {@code timer}, scheduling its next deadline,
+   * and executes its task or animator callback. Timers which have no registered task nor
+   * started animator are dropped from the queue, until they are registered or run again.
+   */
+  protected void _execute(SequentialTimer timer) {
+    // skip timers stopped or restarted by a previous callback
+    if (!timer._active || timer._queueIndex != -1)
+      return;
+    if (timer._animator != null) {
+      if (!timer._animator.started())
+        return;
+      timer._next();
+      _schedule(timer);
+      timer._animator.animate();
+    } else if (_isBound(timer)) {
+      timer._next();
+      _schedule(timer);
+      timer.timingTask().execute();
+      if (timer._once)
+        timer.inactivate();
+    }
+  }
+
+  /**
+   * Returns {@code true} if the {@code timer} is the one of a registered task.
+   */
+  protected boolean _isBound(SequentialTimer timer) {
+    return timer.timingTask() instanceof TimingTask && ((TimingTask) timer.timingTask()).timer() == timer
+        && _registeredTasks.contains(timer.timingTask());
+  }
+
+  /**
+   * Used by {@link #handle()} to bind the animators registered before their timers were set.
+   */
+  protected void _bindAnimators() {
+    for (int i = _unboundAnimators.size() - 1; i >= 0; i--)
+      if (_bind(_unboundAnimators.get(i)))
+        _unboundAnimators.remove(i);
+  }
+
+  /**
+   * Binds the {@code animator} to its timer so that the timer executes the animator
+   * callback. Returns {@code false} if the animator timer isn't set yet.
+   */
+  protected boolean _bind(Animator animator) {
+    SequentialTimer timer = animator.timer();
+    if (timer == null)
+      return false;
+    timer._animator = animator;
+    if (timer.isActive())
+      _schedule(timer);
+    return true;
+  }
+
+  /**
+   * Internal use. Inserts the {@code timer} into the deadline queue, or updates its position
+   * if it is already queued. Called by {@link SequentialTimer#run()}.
+   */
+  protected void _schedule(SequentialTimer timer) {
+    int index = timer._queueIndex;
+    if (index == -1) {
+      if (_queueSize == _queue.length)
+        _queue = Arrays.copyOf(_queue, 2 * _queueSize);
+      index = _queueSize++;
+      _queue[index] = timer;
+      timer._queueIndex = index;
+    }
+    _siftDown(_siftUp(index));
+  }
+
+  /**
+   * Internal use. Removes the {@code timer} from the deadline queue (if present). Called by
+   * {@link SequentialTimer#inactivate()}.
+   */
+  protected void _unschedule(SequentialTimer timer) {
+    int index = timer._queueIndex;
+    if (index == -1 || _queue[index] != timer)
+      return;
+    timer._queueIndex = -1;
+    SequentialTimer last = _queue[--_queueSize];
+    _queue[_queueSize] = null;
+    if (index == _queueSize)
+      return;
+    _queue[index] = last;
+    last._queueIndex = index;
+    _siftDown(_siftUp(index));
+  }
+
+  /**
+   * Removes and returns the timer having the earliest deadline.
+   */
+  protected SequentialTimer _poll() {
+    SequentialTimer timer = _queue[0];
+    _unschedule(timer);
+    return timer;
+  }
+
+  /**
+   * Moves the queue entry at {@code index} up while its deadline is earlier than its
+   * parent one. Returns the resulting index.
+   */
+  protected int _siftUp(int index) {
+    SequentialTimer timer = _queue[index];
+    while (index > 0) {
+      int parent = (index - 1) >> 1;
+      if (_queue[parent]._deadline <= timer._deadline)
+        break;
+      _queue[index] = _queue[parent];
+      _queue[index]._queueIndex = index;
+      index = parent;
+    }
+    _queue[index] = timer;
+    timer._queueIndex = index;
+    return index;
+  }
+
+  /**
+   * Moves the queue entry at {@code index} down while its deadline is later than any of
+   * its children ones.
+   */
+  protected void _siftDown(int index) {
+    SequentialTimer timer = _queue[index];
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= _queueSize)
+        break;
+      if (child + 1 < _queueSize && _queue[child + 1]._deadline < _queue[child]._deadline)
+        child++;
+      if (timer._deadline <= _queue[child]._deadline)
+        break;
+      _queue[index] = _queue[child];
+      _queue[index]._queueIndex = index;
+      index = child;
+    }
+    _queue[index] = timer;
+    timer._queueIndex = index;
   }
 
   /**
@@ -77,6 +542,7 @@ public class TimingHandler {
   public void registerTask(TimingTask task) {
     task.setTimer(new SequentialTimer(this, task));
     _taskPool.add(task);
+    _registeredTasks.add(task);
   }
 
   /**
@@ -85,6 +551,9 @@ public class TimingHandler {
   public void registerTask(TimingTask task, Timer timer) {
     task.setTimer(timer);
     _taskPool.add(task);
+    _registeredTasks.add(task);
+    if (timer instanceof SequentialTimer && timer.isActive())
+      _schedule((SequentialTimer) timer);
   }
 
   /**
@@ -93,7 +562,8 @@ public class TimingHandler {
    * @see #unregisterTask(TimingTask)
    */
   public void unregisterTask(SequentialTimer timer) {
-    _taskPool.remove(timer.timingTask());
+    if (timer.timingTask() instanceof TimingTask)
+      unregisterTask((TimingTask) timer.timingTask());
   }
 
   /**
@@ -103,13 +573,15 @@ public class TimingHandler {
    */
   public void unregisterTask(TimingTask task) {
     _taskPool.remove(task);
+    if (!_taskPool.contains(task))
+      _registeredTasks.remove(task);
   }
 
   /**
    * Returns {@code true} if the task is registered and {@code false} otherwise.
    */
   public boolean isTaskRegistered(TimingTask task) {
-    return _taskPool.contains(task);
+    return _registeredTasks.contains(task);
   }
 
   /**
@@ -118,14 +590,16 @@ public class TimingHandler {
    * all timing operations.
    */
   protected void _updateFrameRate() {
-    long now = System.currentTimeMillis();
-    if (_localCount > 1) {
+    long nanos = System.nanoTime();
+    if (_localCount > 0 && _profiling)
+      _histograms[Phase.FRAME.ordinal()].record(nanos - _frameRateLastNanos);
+    if (_localCount > 1 && nanos > _frameRateLastNanos) {
       // update the current _frameRate
-      double rate = 1000.0 / ((now - _frameRateLastMillis) / 1000.0);
-      float instantaneousRate = (float) rate / 1000.0f;
+      float instantaneousRate = 1e9f / (nanos - _frameRateLastNanos);
       _frameRate = (_frameRate * 0.9f) + (instantaneousRate * 0.1f);
     }
-    _frameRateLastMillis = now;
+    _frameRateLastNanos = nanos;
+    _frameRateLastMillis = System.currentTimeMillis();
     _localCount++;
     //TODO needs testing but I think is also safe and simpler
     //if (TimingHandler.frameCount < frameCount())
@@ -191,6 +665,8 @@ public class TimingHandler {
    */
   public void registerAnimator(Animator animator) {
     _animatorPool.add(animator);
+    if (!_bind(animator))
+      _unboundAnimators.add(animator);
   }
 
   /**
@@ -198,6 +674,11 @@ public class TimingHandler {
    */
   public void unregisterAnimator(Animator animator) {
     _animatorPool.remove(animator);
+    if (_animatorPool.contains(animator))
+      return;
+    _unboundAnimators.remove(animator);
+    if (animator.timer() != null && animator.timer()._animator == animator)
+      animator.timer()._animator = null;
   }
 
   /**